@@ -0,0 +1,113 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Кодирование URL-safe base64 без выравнивания, в котором сервер умного дома принимает и отдает пакеты.
+ * В отличие от {@link java.util.Base64} работает с заранее выделенными массивами и не создает объектов.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public final class Base64Url {
+
+    /** Алфавит URL-safe base64. */
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+
+    /** Значения символов алфавита, -1 - символ не из алфавита */
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private Base64Url() {
+    }
+
+    /**
+     * Максимальная длина результата {@link #encode}.
+     * @param length количество кодируемых байтов
+     * @return длина в символах
+     */
+    public static int encodedLength(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    /**
+     * Максимальная длина результата {@link #decode}.
+     * @param length количество символов
+     * @return длина в байтах
+     */
+    public static int decodedLength(int length) {
+        return length / 4 * 3 + 2;
+    }
+
+    /**
+     * Кодирует байты в заранее выделенный массив.
+     * @param bytes исходные байты
+     * @param length количество кодируемых байтов
+     * @param encoded массив для результата размером не меньше {@link #encodedLength(int)}
+     * @return длина результата
+     */
+    public static int encode(byte[] bytes, int length, byte[] encoded) {
+        int j = 0;
+        for (int i = 0; i < length; i += 3) {
+            int remaining = Math.min(3, length - i);
+            int bits = (bytes[i] & 0xFF) << 16;
+            if (remaining > 1) {
+                bits |= (bytes[i + 1] & 0xFF) << 8;
+            }
+            if (remaining > 2) {
+                bits |= bytes[i + 2] & 0xFF;
+            }
+            for (int k = 0; k <= remaining; k++) {
+                encoded[j++] = ALPHABET[(bits >>> (18 - 6 * k)) & 0x3F];
+            }
+        }
+        return j;
+    }
+
+    /**
+     * Декодирует символы в заранее выделенный массив. Символы выравнивания {@code =} в конце допускаются.
+     * @param encoded символы base64
+     * @param from начало символов
+     * @param to конец символов (не включая)
+     * @param decoded массив для результата размером не меньше {@code offset + }{@link #decodedLength(int)}
+     * @param offset смещение первого байта результата
+     * @return смещение, следующее за последним записанным байтом
+     * @throws IllegalArgumentException если встретился символ не из алфавита
+     */
+    public static int decode(byte[] encoded, int from, int to, byte[] decoded, int offset) {
+        while (to > from && encoded[to - 1] == '=') {
+            to--;
+        }
+        int bits = 0;
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            byte c = encoded[i];
+            int value = c >= 0 ? VALUES[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Illegal base64 character " + (c & 0xFF));
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                decoded[offset++] = (byte) (bits >> 16);
+                decoded[offset++] = (byte) (bits >> 8);
+                decoded[offset++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 1) {
+            throw new IllegalArgumentException("Truncated base64 input");
+        } else if (count == 2) {
+            decoded[offset++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            decoded[offset++] = (byte) (bits >> 10);
+            decoded[offset++] = (byte) (bits >> 2);
+        }
+        return offset;
+    }
+}
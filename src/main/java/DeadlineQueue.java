@@ -0,0 +1,143 @@
+import java.util.Arrays;
+
+/**
+ * Очередь элементов по возрастанию крайнего срока (двоичная куча), в которой элемент хранит свое место в куче.
+ * Поэтому срок элемента можно изменить, а сам элемент - удалить за {@code O(log n)} без поиска и без устаревших
+ * записей, и операции не создают объектов: массив кучи увеличивается только при росте числа элементов.
+ * Элемент может находиться не больше чем в одной очереди. Экземпляр не потокобезопасен.
+ * @param <E> тип элементов
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class DeadlineQueue<E extends DeadlineQueue.Node> {
+
+    /** Элемент очереди. Поля изменяет только очередь. */
+    public static class Node {
+
+        /** Крайний срок */
+        private long deadline;
+
+        /** Место в куче, -1 - элемент не в очереди */
+        private int index = -1;
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public boolean isQueued() {
+            return index >= 0;
+        }
+    }
+
+    private Node[] heap = new Node[16];
+
+    private int size;
+
+    /**
+     * Ставит элемент в очередь или переносит его на новый срок.
+     * @param element элемент
+     * @param deadline крайний срок
+     */
+    public void schedule(E element, long deadline) {
+        Node node = element;
+        long previous = node.deadline;
+        node.deadline = deadline;
+        if (node.index < 0) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            node.index = size;
+            heap[size++] = node;
+            siftUp(node.index);
+        } else if (deadline < previous) {
+            siftUp(node.index);
+        } else {
+            siftDown(node.index);
+        }
+    }
+
+    /**
+     * Удаляет элемент из очереди, если он в ней.
+     * @param element элемент
+     */
+    public void remove(E element) {
+        Node node = element;
+        int index = node.index;
+        if (index < 0) {
+            return;
+        }
+        node.index = -1;
+        Node last = heap[--size];
+        heap[size] = null;
+        if (index < size) {
+            heap[index] = last;
+            last.index = index;
+            siftDown(index);
+            siftUp(last.index);
+        }
+    }
+
+    /**
+     * Элемент с наименьшим сроком.
+     * @return элемент или {@code null}, если очередь пуста
+     */
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        return size == 0 ? null : (E) heap[0];
+    }
+
+    /**
+     * Извлекает элемент с наименьшим сроком.
+     * @return элемент или {@code null}, если очередь пуста
+     */
+    public E poll() {
+        E first = peek();
+        if (first != null) {
+            remove(first);
+        }
+        return first;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void siftUp(int index) {
+        Node node = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].deadline <= node.deadline) {
+                break;
+            }
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(node, index);
+    }
+
+    private void siftDown(int index) {
+        Node node = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && heap[child + 1].deadline < heap[child].deadline) {
+                child++;
+            }
+            if (node.deadline <= heap[child].deadline) {
+                break;
+            }
+            place(heap[child], index);
+            index = child;
+        }
+        place(node, index);
+    }
+
+    private void place(Node node, int index) {
+        heap[index] = node;
+        node.index = index;
+    }
+}
@@ -23,6 +23,28 @@ public class Device {
     /** Количество пакетов, отправленных устройством */
     private long serial;
 
+    /** Отвечает ли устройство на запросы хаба. Недоступным устройствам команды не рассылаются. */
+    private boolean reachable = true;
+
+    /** Последнее известное состояние из STATUS, действительно при {@link #hasStatus} */
+    private byte status;
+    private boolean hasStatus;
+
+    /** Значение SETSTATUS, ожидающее отправки в текущем тике, действительно при {@link #hasPendingStatus} */
+    private byte pendingStatus;
+    private boolean hasPendingStatus;
+
+    /**
+     * Значение последнего SETSTATUS, поставленного в очередь отправки, пока устройство не подтвердило его
+     * своим STATUS. Действительно при {@link #hasCommandedStatus}. Сбрасывается, если устройство не ответило вовремя:
+     * команда считается потерянной.
+     */
+    private byte commandedStatus;
+    private boolean hasCommandedStatus;
+
+    /** SETSTATUS устройству, ожидающий в очереди {@link OutboundScheduler}, или {@code null} */
+    private OutboundScheduler.Command queuedSetStatus;
+
     public Device(long src, DeviceType type, String name, long serial) {
         this.address = src;
         this.type = type;
@@ -65,6 +87,69 @@ public class Device {
         return serial;
     }
 
+    public boolean isReachable() {
+        return reachable;
+    }
+
+    public void setReachable(boolean reachable) {
+        this.reachable = reachable;
+    }
+
+    public byte getStatus() {
+        return status;
+    }
+
+    public boolean hasStatus() {
+        return hasStatus;
+    }
+
+    public void setStatus(byte status) {
+        this.status = status;
+        this.hasStatus = true;
+    }
+
+    public byte getPendingStatus() {
+        return pendingStatus;
+    }
+
+    public boolean hasPendingStatus() {
+        return hasPendingStatus;
+    }
+
+    public void setPendingStatus(byte pendingStatus) {
+        this.pendingStatus = pendingStatus;
+        this.hasPendingStatus = true;
+    }
+
+    public void clearPendingStatus() {
+        this.hasPendingStatus = false;
+    }
+
+    public byte getCommandedStatus() {
+        return commandedStatus;
+    }
+
+    public boolean hasCommandedStatus() {
+        return hasCommandedStatus;
+    }
+
+    public void setCommandedStatus(byte commandedStatus) {
+        this.commandedStatus = commandedStatus;
+        this.hasCommandedStatus = true;
+    }
+
+    public void clearCommandedStatus() {
+        this.hasCommandedStatus = false;
+    }
+
+    OutboundScheduler.Command getQueuedSetStatus() {
+        return queuedSetStatus;
+    }
+
+    void setQueuedSetStatus(OutboundScheduler.Command queuedSetStatus) {
+        this.queuedSetStatus = queuedSetStatus;
+    }
+
     // Для отладки
     @Override
     public String toString() {
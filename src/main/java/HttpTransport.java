@@ -0,0 +1,103 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+/**
+ * Обмен с сервером умного дома через {@link HttpURLConnection}: каждый запрос отправляется сразу и синхронно,
+ * соединения keep-alive переиспользуются средствами JDK. Каждый запрос создает объекты соединения и потоков,
+ * поэтому в режиме без выделения памяти используется {@link PipelinedHttpClient}. Экземпляр не потокобезопасен.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class HttpTransport implements Transport {
+
+    /** Ссылка на сервер умного дома */
+    private final URL url;
+
+    /** Тело ответа сервера, растет по мере необходимости */
+    private byte[] response = new byte[4096];
+
+    public HttpTransport(URL url) {
+        this.url = url;
+    }
+
+    @Override
+    public void send(byte[] body, int length, Inbound responses) throws IOException {
+        HttpURLConnection httpURLConnection = createHttpURLConnection(url);
+        try {
+            if (length == 0) {
+                httpURLConnection.setDoOutput(false);       // Опрос сервера
+            }
+            httpURLConnection.connect();
+            if (length > 0) {
+                OutputStream os = httpURLConnection.getOutputStream();
+                os.write(body, 0, length);
+                os.close();
+            }
+            if (responses.accept(httpURLConnection.getResponseCode())) {
+                int lineEnd = readFirstLine(httpURLConnection.getInputStream());
+                responses.appendBase64(response, 0, lineEnd);
+            }
+        } finally {
+            httpURLConnection.disconnect();
+        }
+    }
+
+    /**
+     * Ничего не делает: ответ принимается в {@link #send}.
+     */
+    @Override
+    public void flush(Inbound responses) {
+    }
+
+    /**
+     * Ничего не делает: соединения keep-alive принадлежат JDK.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Читает тело ответа в {@link #response}.
+     * @param is поток тела ответа, закрывается
+     * @return длина первой строки тела (пакеты в base64)
+     * @throws IOException при проблемах с чтением потока данных в канале
+     */
+    private int readFirstLine(InputStream is) throws IOException {
+        int length = 0;
+        int read;
+        while ((read = is.read(response, length, response.length - length)) != -1) {
+            length += read;
+            if (length == response.length) {
+                response = Arrays.copyOf(response, length * 2);
+            }
+        }
+        is.close();
+        int lineEnd = 0;
+        while (lineEnd < length && response[lineEnd] != '\n' && response[lineEnd] != '\r') {
+            lineEnd++;
+        }
+        return lineEnd;
+    }
+
+    /**
+     * Создает объект HTTP-подключения к серверу умного дома
+     * @param url {@link  URL} ссылка на сервер умного дома
+     * @return {@link  HttpURLConnection} объект HTTP-подключения к серверу умного дома
+     * @throws IOException при проблемах с подключением к серверу или отправкой на него POST-запроса
+     */
+    static HttpURLConnection createHttpURLConnection(URL url) throws IOException {
+        HttpURLConnection httpURLConnection = (HttpURLConnection) url.openConnection();
+        httpURLConnection.setRequestMethod("POST");
+        httpURLConnection.setDoInput(true);
+        httpURLConnection.setDoOutput(true);
+        httpURLConnection.setConnectTimeout(300);
+        httpURLConnection.setReadTimeout(300);
+        httpURLConnection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        httpURLConnection.setRequestProperty("Accept", "application/x-www-form-urlencoded");
+        return httpURLConnection;
+    }
+}
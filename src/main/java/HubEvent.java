@@ -0,0 +1,41 @@
+/**
+ * Событие хаба, публикуемое подписчикам {@link HubEventPublisher}.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public sealed interface HubEvent permits HubEvent.DeviceDiscovered, HubEvent.StatusChanged, HubEvent.CommandSent {
+
+    /**
+     * Время модели, в которое произошло событие.
+     * @return последний известный тик {@link DeviceType#CLOCK}
+     */
+    long tick();
+
+    /**
+     * Хаб обнаружил устройство (WHOISHERE или IAMHERE от устройства).
+     * @param tick время модели
+     * @param address адрес устройства
+     * @param type тип устройства
+     * @param name имя устройства
+     */
+    record DeviceDiscovered(long tick, long address, DeviceType type, String name) implements HubEvent {}
+
+    /**
+     * Устройство сообщило новое состояние (STATUS).
+     * @param tick время модели
+     * @param address адрес устройства
+     * @param type тип устройства
+     * @param value новое состояние
+     */
+    record StatusChanged(long tick, long address, DeviceType type, byte value) implements HubEvent {}
+
+    /**
+     * Хаб отправил команду.
+     * @param tick время модели
+     * @param dst адрес получателя
+     * @param serial номер пакета хаба
+     * @param cmd команда протокола (см. {@link Payload})
+     * @param value устанавливаемое значение для SETSTATUS, иначе 0
+     */
+    record CommandSent(long tick, long dst, long serial, byte cmd, byte value) implements HubEvent {}
+}
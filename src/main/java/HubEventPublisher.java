@@ -0,0 +1,70 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+/**
+ * Поток событий хаба ({@link HubEvent}) в виде {@link Flow.Publisher}. У каждого подписчика свой ограниченный
+ * буфер, доставка идет в отдельном {@link Executor} с учетом запрошенного подписчиком количества элементов.
+ * Публикация никогда не блокирует цикл управления: если буфер подписчика заполнен, событие для него
+ * отбрасывается и учитывается в {@link #getDroppedCount()}.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class HubEventPublisher implements Flow.Publisher<HubEvent>, AutoCloseable {
+
+    private final SubmissionPublisher<HubEvent> publisher;
+
+    /** Количество событий, не доставленных из-за переполнения буфера подписчика */
+    private final LongAdder dropped = new LongAdder();
+
+    /** Обработчик переполнения буфера: событие отбрасывается без повторных попыток */
+    private final BiPredicate<Flow.Subscriber<? super HubEvent>, ? super HubEvent> onDrop = (subscriber, event) -> {
+        dropped.increment();
+        return false;
+    };
+
+    public HubEventPublisher() {
+        this(ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    /**
+     * @param executor исполнитель, в котором события доставляются подписчикам
+     * @param bufferCapacity размер буфера каждого подписчика
+     */
+    public HubEventPublisher(Executor executor, int bufferCapacity) {
+        this.publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super HubEvent> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Есть ли подписчики. Позволяет не создавать события, если их некому доставить.
+     * @return {@code true}, если есть хотя бы один подписчик
+     */
+    public boolean hasSubscribers() {
+        return publisher.hasSubscribers();
+    }
+
+    /**
+     * Публикует событие всем подписчикам без ожидания.
+     * @param event событие
+     */
+    public void publish(HubEvent event) {
+        publisher.offer(event, onDrop);
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void close() {
+        publisher.close();
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Среда, в которой в одной JVM работают хабы многих домов ({@link HubTenant}). У каждого хаба свои ссылка на сервер,
+ * адрес, реестр устройств и номер пакета, а потоки, очередь выполнения и пул соединений общие:
+ * <ul>
+ *     <li>готовые к работе хабы стоят в общей FIFO-очереди, которую разбирают рабочие потоки;</li>
+ *     <li>поток выполняет у хаба ровно один шаг (одну пачку пакетов или один запрос выявления устройств) и ставит
+ *     его в конец очереди, поэтому хабы получают потоки по кругу и один загруженный дом не задерживает остальные
+ *     больше чем на шаг;</li>
+ *     <li>буферы кодирования ({@code SmartHub.IoBuffers}) и буферы запросов и ответов {@link PipelinedHttpClient}
+ *     принадлежат потоку, а не хабу, а соединения keep-alive {@link java.net.HttpURLConnection} общие для всей JVM;</li>
+ *     <li>ошибка в шаге хаба завершает только этот хаб, кроме {@link VirtualMachineError}.</li>
+ * </ul>
+ * Хаб не занимает поток между шагами, поэтому на дом приходится только {@link HubState} - несколько килобайт
+ * для небольшой сети. В режиме {@code -Dsmarthub.transport=nio} каждый хаб дополнительно держит свое соединение
+ * {@link PipelinedHttpClient}, без собственных буферов.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class HubRuntime implements AutoCloseable {
+
+    /** Хабы, готовые к следующему шагу */
+    private final BlockingQueue<HubTenant> ready = new LinkedBlockingQueue<>();
+
+    /** Все хабы среды */
+    private final Collection<HubTenant> tenants = new ConcurrentLinkedQueue<>();
+
+    private final List<Thread> workers;
+
+    /** Количество работающих хабов */
+    private int active;
+
+    /**
+     * @param workerCount количество рабочих потоков
+     */
+    public HubRuntime(int workerCount) {
+        this.workers = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            Thread thread = new Thread(this::work, "smarthub-worker-" + i);
+            thread.setDaemon(true);
+            workers.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Точка входа для запуска нескольких хабов в одной JVM.
+     * @param args Пары аргументов: ссылка на сервер умного дома и адрес хаба. <p>
+     * Количество рабочих потоков задается свойством {@code -Dsmarthub.workers}, по умолчанию - число процессоров.
+     * Программа завершается с кодом 0, если все серверы сообщили об окончании работы, и с кодом 99 иначе.
+     * Снимки состояния здесь никто не читает, поэтому они не строятся.
+     */
+    public static void main(String[] args) {
+        int workerCount = Integer.getInteger("smarthub.workers", Runtime.getRuntime().availableProcessors());
+        int exitCode = 0;
+        try (HubRuntime runtime = new HubRuntime(workerCount)) {
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                HubState state = new HubState(Integer.parseInt(args[i + 1], 16));
+                state.setSnapshotsEnabled(false);
+                runtime.add(new URL(args[i]), state);
+            }
+            runtime.awaitTermination();
+            for (HubTenant tenant : runtime.getTenants()) {
+                if (tenant.getPhase() != HubTenant.Phase.FINISHED) {
+                    exitCode = 99;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            exitCode = 99;
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * Добавляет хаб с новым состоянием. Выявление устройств выполняется первым шагом хаба.
+     * @param url ссылка на сервер умного дома
+     * @param hubAddress адрес хаба
+     * @return {@link HubTenant} добавленный хаб
+     */
+    public HubTenant add(URL url, long hubAddress) {
+        return add(url, new HubState(hubAddress));
+    }
+
+    /**
+     * Добавляет хаб с заданным состоянием, например чтобы подписаться на {@link HubState#getEvents()} до его запуска.
+     * @param url ссылка на сервер умного дома
+     * @param state состояние хаба
+     * @return {@link HubTenant} добавленный хаб
+     */
+    public HubTenant add(URL url, HubState state) {
+        HubTenant tenant = new HubTenant(url, state);
+        tenants.add(tenant);
+        synchronized (this) {
+            active++;
+        }
+        ready.add(tenant);
+        return tenant;
+    }
+
+    /**
+     * Все хабы среды, включая завершившие работу.
+     * @return {@link Collection}<{@link HubTenant}>
+     */
+    public Collection<HubTenant> getTenants() {
+        return Collections.unmodifiableCollection(tenants);
+    }
+
+    /**
+     * Ожидает, пока все хабы завершат работу.
+     * @throws InterruptedException если ожидание было прервано
+     */
+    public synchronized void awaitTermination() throws InterruptedException {
+        while (active > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * Закрывает хаб, завершивший работу, и учитывает его в {@link #awaitTermination()} при любом исходе закрытия.
+     */
+    private void terminate(HubTenant tenant) {
+        try {
+            tenant.close();
+        } finally {
+            onTerminated();
+        }
+    }
+
+    private synchronized void onTerminated() {
+        if (--active == 0) {
+            notifyAll();
+        }
+    }
+
+    private void work() {
+        try {
+            while (true) {
+                HubTenant tenant = ready.take();
+                boolean running = false;
+                try {
+                    running = tenant.step();
+                } finally {
+                    if (running) {
+                        ready.add(tenant);
+                    } else {
+                        terminate(tenant);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Останавливает рабочие потоки и закрывает соединения хабов.
+     */
+    @Override
+    public void close() {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (HubTenant tenant : tenants) {
+            tenant.close();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Неизменяемый снимок состояния хаба: устройства, связи мастер-устройств с ведомыми и состояния устройств.
+ * Снимок строится циклом управления после пачки пакетов, изменившей устройства, их доступность или состояния,
+ * и публикуется через {@link HubState#getSnapshot()}, поэтому читать его можно из любого потока без блокировок.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public final class HubSnapshot {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Снимок до первой публикации. */
+    public static final HubSnapshot EMPTY = new HubSnapshot(0, 0, List.of());
+
+    /**
+     * Устройство в снимке.
+     * @param address адрес устройства
+     * @param type тип устройства
+     * @param name имя устройства
+     * @param reachable отвечает ли устройство на запросы хаба
+     * @param state последнее известное состояние или {@code null}, если неизвестно
+     * @param slaves адреса ведомых устройств
+     */
+    public record DeviceInfo(long address, DeviceType type, String name, boolean reachable, Byte state,
+                             List<Long> slaves) {}
+
+    /** Порядковый номер снимка */
+    private final long sequence;
+
+    /** Время модели на момент построения снимка */
+    private final long tick;
+
+    private final List<DeviceInfo> devices;
+
+    /**
+     * Закодированные представления, вычисляются при первом обращении. Поля {@code volatile}, чтобы читатель из другого
+     * потока видел массив заполненным. Гонка при вычислении безопасна: результат одинаков.
+     */
+    private volatile byte[] binary;
+    private volatile String json;
+
+    private HubSnapshot(long sequence, long tick, List<DeviceInfo> devices) {
+        this.sequence = sequence;
+        this.tick = tick;
+        this.devices = devices;
+    }
+
+    /**
+     * Строит снимок по текущему состоянию хаба. Вызывается только из цикла управления.
+     * @param sequence порядковый номер снимка
+     * @param state состояние хаба
+     * @return {@link HubSnapshot}
+     */
+    static HubSnapshot of(long sequence, HubState state) {
+        List<DeviceInfo> devices = new ArrayList<>(state.getDevices().size());
+        for (Device device : state.getDevices()) {
+            long[] slaveAddresses = state.getMasterToSlaves().get(device.getAddress());
+            List<Long> slaves = new ArrayList<>(slaveAddresses == null ? 0 : slaveAddresses.length);
+            if (slaveAddresses != null) {
+                for (long slave : slaveAddresses) {
+                    slaves.add(slave);
+                }
+            }
+            devices.add(new DeviceInfo(device.getAddress(), device.getType(), device.getName(), device.isReachable(),
+                    device.hasStatus() ? device.getStatus() : null, List.copyOf(slaves)));
+        }
+        return new HubSnapshot(sequence, state.getTracker().getCurrentTick(), List.copyOf(devices));
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public List<DeviceInfo> getDevices() {
+        return devices;
+    }
+
+    /**
+     * Двоичное представление снимка. Все числа - {@link Varuint}, строки - {@link PacketString}: <p>
+     * {@code sequence, tick, count}, затем для каждого устройства
+     * {@code address, devType, name, flags (0x01 - доступно, 0x02 - состояние известно), state, slavesCount, slaves...}
+     * @return массив байтов
+     */
+    public byte[] asBytes() {
+        byte[] result = binary;
+        if (result == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.writeBytes(new Varuint(sequence).getValue());
+            out.writeBytes(new Varuint(tick).getValue());
+            out.writeBytes(new Varuint(devices.size()).getValue());
+            for (DeviceInfo device : devices) {
+                out.writeBytes(new Varuint(device.address()).getValue());
+                out.write(device.type().ordinal() + 1);
+                out.writeBytes(new PacketString(device.name()).getBytes());
+                out.write((device.reachable() ? 0x01 : 0) | (device.state() != null ? 0x02 : 0));
+                out.write(device.state() != null ? device.state() : 0);
+                out.writeBytes(new Varuint(device.slaves().size()).getValue());
+                for (Long slave : device.slaves()) {
+                    out.writeBytes(new Varuint(slave).getValue());
+                }
+            }
+            result = out.toByteArray();
+            binary = result;
+        }
+        return result;
+    }
+
+    /**
+     * Представление снимка в формате JSON.
+     * @return строка JSON
+     */
+    public String asJson() {
+        String result = json;
+        if (result == null) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"sequence\":").append(sequence).append(",\"tick\":").append(tick).append(",\"devices\":[");
+            for (int i = 0; i < devices.size(); i++) {
+                DeviceInfo device = devices.get(i);
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"address\":").append(device.address())
+                        .append(",\"type\":\"").append(device.type()).append('"')
+                        .append(",\"name\":\"");
+                appendEscaped(sb, device.name());
+                sb.append("\",\"reachable\":").append(device.reachable())
+                        .append(",\"state\":").append(device.state())
+                        .append(",\"slaves\":").append(device.slaves())
+                        .append('}');
+            }
+            result = sb.append("]}").toString();
+            json = result;
+        }
+        return result;
+    }
+
+    /**
+     * Дописывает строку в JSON-строку: кавычки и обратная косая черта экранируются, управляющие символы
+     * (в том числе байт длины, если он попал в имя) записываются шестнадцатеричным кодом, как требует JSON.
+     * @param sb результат
+     * @param value строка
+     */
+    private static void appendEscaped(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+}
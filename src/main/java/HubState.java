@@ -0,0 +1,214 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Состояние хаба: выявленные устройства, их состояния, связи мастер-устройств с ведомыми.
+ * Изменяется только циклом управления {@link SmartHub}; внешние наблюдатели подписываются на {@link #getEvents()}.
+ * Устройства и связи хранятся с ключами {@code long}, поэтому поиск по адресу не упаковывает адрес в {@link Long}.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class HubState {
+
+    /** Адрес хаба */
+    private final long hubAddress;
+
+    /** Все устройства в системе в виде Адрес-Устройство */
+    private final LongMap<Device> devices = new LongMap<>();
+
+    /** Все устройства в системе в порядке выявления */
+    private final List<Device> deviceList = new ArrayList<>();
+
+    /** Неизменяемое представление {@link #deviceList} */
+    private final Collection<Device> deviceView = Collections.unmodifiableList(deviceList);
+
+    /** Связи мастер-устройств с ведомыми в виде Адрес мастера-Адреса ведомых */
+    private final LongMap<long[]> masterToSlaves = new LongMap<>();
+
+    /** Запросы хаба, ожидающие ответа */
+    private final RequestTracker tracker = new RequestTracker();
+
+    /**
+     * Устройства, которым в текущем тике нужно отправить SETSTATUS, в порядке первого запроса.
+     * Значение хранится в самом устройстве ({@link Device#getPendingStatus()}).
+     */
+    private final List<Device> pendingSetStatus = new ArrayList<>();
+
+    /** Очередь исходящих команд */
+    private final OutboundScheduler outbound = new OutboundScheduler();
+
+    /** Способ обмена с сервером, задается при запуске хаба */
+    private Transport transport;
+
+    /** Фоновый опрос состояний устройств */
+    private final StatusPoller poller = new StatusPoller();
+
+    /** История показаний датчиков */
+    private final SensorStore sensors = new SensorStore();
+
+    /** События хаба */
+    private final HubEventPublisher events;
+
+    /** Последний опубликованный снимок состояния */
+    private final AtomicReference<HubSnapshot> snapshot = new AtomicReference<>(HubSnapshot.EMPTY);
+
+    /** Публиковать ли снимки состояния */
+    private boolean snapshotsEnabled = true;
+
+    /** Изменилось ли состояние с последнего снимка */
+    private boolean changed;
+
+    public HubState(long hubAddress) {
+        this(hubAddress, new HubEventPublisher());
+    }
+
+    public HubState(long hubAddress, HubEventPublisher events) {
+        this.hubAddress = hubAddress;
+        this.events = events;
+        Device hub = new Device(hubAddress, DeviceType.SMARTHUB, "HUB01", 1);
+        devices.put(hubAddress, hub);
+        deviceList.add(hub);
+        changed = true;
+    }
+
+    public long getHubAddress() {
+        return hubAddress;
+    }
+
+    public Device getHub() {
+        return devices.get(hubAddress);
+    }
+
+    /**
+     * Устройство по адресу.
+     * @param address адрес устройства
+     * @return {@link Device} или {@code null}, если устройство неизвестно
+     */
+    public Device getDevice(long address) {
+        return devices.get(address);
+    }
+
+    /**
+     * Добавляет устройство или заменяет устройство с тем же адресом. Последнее известное состояние
+     * заменяемого устройства переходит к новому.
+     * @param device устройство
+     */
+    public void addDevice(Device device) {
+        Device previous = devices.put(device.getAddress(), device);
+        if (previous == null) {
+            deviceList.add(device);
+        } else {
+            deviceList.set(deviceList.indexOf(previous), device);
+            if (previous.hasStatus()) {
+                device.setStatus(previous.getStatus());
+            }
+        }
+        markChanged();
+    }
+
+    /**
+     * Все устройства в порядке выявления.
+     * @return неизменяемая {@link Collection}<{@link Device}>
+     */
+    public Collection<Device> getDevices() {
+        return deviceView;
+    }
+
+    /**
+     * Связи мастер-устройств с ведомыми.
+     * @return {@link LongMap} Адрес мастера-Адреса ведомых
+     */
+    public LongMap<long[]> getMasterToSlaves() {
+        return masterToSlaves;
+    }
+
+    public RequestTracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * Запоминает SETSTATUS ведомому устройству до конца тика. Повторный запрос в том же тике заменяет значение.
+     * @param device устройство-получатель
+     * @param value устанавливаемое значение
+     */
+    public void requestSetStatus(Device device, byte value) {
+        if (!device.hasPendingStatus()) {
+            pendingSetStatus.add(device);
+        }
+        device.setPendingStatus(value);
+    }
+
+    /**
+     * Устройства, которым в текущем тике нужно отправить SETSTATUS, см. {@link #requestSetStatus}.
+     * @return {@link List}<{@link Device}> в порядке первого запроса
+     */
+    List<Device> getPendingSetStatus() {
+        return pendingSetStatus;
+    }
+
+    public OutboundScheduler getOutbound() {
+        return outbound;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public StatusPoller getPoller() {
+        return poller;
+    }
+
+    public SensorStore getSensors() {
+        return sensors;
+    }
+
+    public HubEventPublisher getEvents() {
+        return events;
+    }
+
+    /**
+     * Последний опубликованный снимок состояния. Безопасно вызывать из любого потока.
+     * @return {@link HubSnapshot}
+     */
+    public HubSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    public boolean isSnapshotsEnabled() {
+        return snapshotsEnabled;
+    }
+
+    /**
+     * Включает или выключает публикацию снимков. Если снимки никто не читает, их построение
+     * можно выключить, и обработка изменений состояния не будет создавать объектов. По умолчанию включена.
+     * @param snapshotsEnabled публиковать ли снимки
+     */
+    public void setSnapshotsEnabled(boolean snapshotsEnabled) {
+        this.snapshotsEnabled = snapshotsEnabled;
+    }
+
+    /**
+     * Отмечает изменение устройств, их доступности или состояний: следующий {@link #publishSnapshot()} построит снимок.
+     */
+    void markChanged() {
+        changed = true;
+    }
+
+    /**
+     * Строит и публикует снимок текущего состояния, если оно изменилось с прошлого снимка.
+     * Вызывается только из цикла управления.
+     */
+    void publishSnapshot() {
+        if (snapshotsEnabled && changed) {
+            changed = false;
+            snapshot.set(HubSnapshot.of(snapshot.get().getSequence() + 1, this));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Хаб одного дома в {@link HubRuntime}: ссылка на сервер, собственное состояние и счетчики работы.
+ * Шаги хаба выполняются общими потоками среды по очереди, но никогда одновременно, поэтому
+ * {@link HubState} по-прежнему изменяется только одним потоком в каждый момент времени.
+ * Счетчики записывает только поток, выполняющий шаг, и их можно читать из любого потока.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class HubTenant {
+
+    /** Этап работы хаба */
+    public enum Phase {
+        /** Хаб еще не выявил устройства сети */
+        STARTING,
+        /** Хаб обрабатывает пакеты */
+        RUNNING,
+        /** Сервер сообщил об окончании работы */
+        FINISHED,
+        /** Работа прервана ошибкой */
+        FAILED
+    }
+
+    /** Ссылка на сервер умного дома */
+    private final URL url;
+
+    /** Состояние хаба */
+    private final HubState state;
+
+    private volatile Phase phase = Phase.STARTING;
+
+    /** Ход выявления устройств на этапе {@link Phase#STARTING} */
+    private final SmartHub.Discovery discovery = new SmartHub.Discovery();
+
+    /** Количество обработанных пачек пакетов */
+    private volatile long batches;
+
+    /** Количество обработанных пакетов */
+    private volatile long packets;
+
+    /** Суммарное время выполнения шагов, нс */
+    private volatile long busyNanos;
+
+    /** Время выполнения последнего шага, нс */
+    private volatile long lastStepNanos;
+
+    /** Ошибка, прервавшая работу хаба */
+    private volatile Throwable failure;
+
+    HubTenant(URL url, HubState state) {
+        this.url = url;
+        this.state = state;
+    }
+
+    /**
+     * Выполняет один шаг: шаг выявления устройств (не больше одного запроса к серверу) на этапе
+     * {@link Phase#STARTING}, иначе обработку одной пачки пакетов. Исключения и ошибки шага, кроме
+     * {@link VirtualMachineError}, переводят хаб в {@link Phase#FAILED}.
+     * @return {@code true}, если хаб продолжает работу
+     */
+    boolean step() {
+        long started = System.nanoTime();
+        try {
+            if (phase == Phase.STARTING) {
+                if (SmartHub.discover(url, state, discovery)) {
+                    phase = Phase.RUNNING;
+                }
+            } else {
+                int count = SmartHub.step(state);
+                if (count < 0) {
+                    phase = Phase.FINISHED;
+                } else {
+                    batches++;
+                    packets += count;
+                }
+            }
+        } catch (IOException | RuntimeException | AssertionError | LinkageError e) {
+            // Ошибка одного хаба не останавливает поток среды. VirtualMachineError (нехватка памяти,
+            // переполнение стека) не перехватывается: после нее продолжать работу нельзя.
+            failure = e;
+            phase = Phase.FAILED;
+        }
+        lastStepNanos = System.nanoTime() - started;
+        busyNanos += lastStepNanos;
+        return phase == Phase.STARTING || phase == Phase.RUNNING;
+    }
+
+    /**
+     * Освобождает {@link Transport} хаба, если он был создан.
+     */
+    void close() {
+        Transport transport = state.getTransport();
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public HubState getState() {
+        return state;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getPackets() {
+        return packets;
+    }
+
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    public long getLastStepNanos() {
+        return lastStepNanos;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,92 @@
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.util.Arrays;
+
+/**
+ * Приемник ответов сервера умного дома: декодированные байты пакетов из тел ответов, дописанные по порядку,
+ * и признак окончания работы (код 204). Переиспользуется между запросами, поэтому прием ответов
+ * не создает объектов: массив увеличивается только при росте ответов. Экземпляр не потокобезопасен.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class Inbound {
+
+    /** Байты пакетов, растет по мере необходимости */
+    private byte[] packets = new byte[4096];
+
+    /** Количество занятых байтов {@link #packets} */
+    private int length;
+
+    /** Сервер ответил кодом 204 - работа окончена */
+    private boolean finished;
+
+    /**
+     * Забывает принятые пакеты и признак окончания работы.
+     */
+    public void clear() {
+        length = 0;
+        finished = false;
+    }
+
+    /**
+     * Учитывает код ответа.
+     * @param code код ответа HTTP
+     * @return {@code true}, если за кодом следует тело с пакетами (200)
+     * @throws ProtocolException при неожиданном коде ответа
+     */
+    public boolean accept(int code) throws ProtocolException {
+        if (code == HttpURLConnection.HTTP_NO_CONTENT) {
+            finished = true;
+            return false;
+        } else if (code != HttpURLConnection.HTTP_OK) {
+            throw new ProtocolException("Unexpected response code " + code);
+        }
+        return true;
+    }
+
+    /**
+     * Дописывает декодированные байты пакетов.
+     * @param bytes байты пакетов
+     * @param offset начало байтов
+     * @param count количество байтов
+     */
+    public void append(byte[] bytes, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(bytes, offset, packets, length, count);
+        length += count;
+    }
+
+    /**
+     * Декодирует тело ответа из base64 и дописывает пакеты.
+     * @param encoded символы base64
+     * @param from начало символов
+     * @param to конец символов (не включая)
+     * @throws ProtocolException если тело не в base64
+     */
+    public void appendBase64(byte[] encoded, int from, int to) throws ProtocolException {
+        ensureCapacity(Base64Url.decodedLength(to - from));
+        try {
+            length = Base64Url.decode(encoded, from, to, packets, length);
+        } catch (IllegalArgumentException e) {
+            throw (ProtocolException) new ProtocolException("Malformed response body").initCause(e);
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (length + count > packets.length) {
+            packets = Arrays.copyOf(packets, Math.max(packets.length * 2, length + count));
+        }
+    }
+
+    public byte[] getPackets() {
+        return packets;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+}
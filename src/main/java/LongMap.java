@@ -0,0 +1,190 @@
+import java.util.Arrays;
+
+/**
+ * Хеш-таблица с ключами {@code long} без упаковки ключей в {@link Long}: открытая адресация с линейным
+ * пробированием, удаление со сдвигом следующих ключей, поэтому удаленные ключи не оставляют меток.
+ * Поиск, замена значения и удаление не создают объектов, массивы увеличиваются только при добавлении новых ключей.
+ * Обойти таблицу без итератора можно по ячейкам: {@link #capacity()}, {@link #keyAt(int)}, {@link #valueAt(int)}.
+ * Значения не могут быть {@code null}. Экземпляр не потокобезопасен.
+ * @param <V> тип значений
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class LongMap<V> {
+
+    /** Максимальная заполненность таблицы: 3/4. */
+    private static final int LOAD_NUMERATOR = 3;
+    private static final int LOAD_DENOMINATOR = 4;
+
+    private long[] keys;
+
+    /** Значения ячеек, {@code null} - ячейка свободна */
+    private Object[] values;
+
+    private int size;
+
+    public LongMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize ожидаемое количество ключей
+     */
+    public LongMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_NUMERATOR / LOAD_DENOMINATOR < expectedSize) {
+            capacity *= 2;
+        }
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+    }
+
+    /**
+     * Значение по ключу.
+     * @param key ключ
+     * @return значение или {@code null}, если ключа нет
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = slotOf(key, mask); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return (V) values[slot];
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Связывает значение с ключом.
+     * @param key ключ
+     * @param value значение, не {@code null}
+     * @return предыдущее значение или {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        int mask = keys.length - 1;
+        int slot = slotOf(key, mask);
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * LOAD_NUMERATOR / LOAD_DENOMINATOR) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Удаляет ключ. Следующие за ним ключи той же цепочки сдвигаются на освободившееся место.
+     * @param key ключ
+     * @return удаленное значение или {@code null}, если ключа не было
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int mask = keys.length - 1;
+        int slot = slotOf(key, mask);
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V removed = (V) values[slot];
+                shiftBack(slot, mask);
+                size--;
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    /** Заполняет освободившуюся ячейку {@code hole} ключами, которые не найти иначе. */
+    private void shiftBack(int hole, int mask) {
+        for (int slot = (hole + 1) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+            int home = slotOf(keys[slot], mask);
+            // Ключ можно перенести в hole, если его исходная ячейка не лежит циклически в (hole, slot]
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                keys[hole] = keys[slot];
+                values[hole] = values[slot];
+                hole = slot;
+            }
+        }
+        values[hole] = null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Удаляет все ключи, не уменьшая таблицу.
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Количество ячеек таблицы, для обхода вместе с {@link #keyAt(int)} и {@link #valueAt(int)}.
+     * @return количество ячеек
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Ключ ячейки. Имеет смысл, только если {@link #valueAt(int)} не {@code null}.
+     * @param slot номер ячейки
+     * @return ключ
+     */
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Значение ячейки.
+     * @param slot номер ячейки
+     * @return значение или {@code null}, если ячейка свободна
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = slotOf(oldKeys[i], mask);
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /** Исходная ячейка ключа: перемешивание Фибоначчи, чтобы соседние адреса не шли подряд. */
+    private static int slotOf(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * Планировщик исходящих команд хаба. Команды делятся на классы приоритета ({@link Priority}) и отправляются
+ * раундами - после обработки очередной пачки пакетов. За раунд отправляется не больше {@link #roundLimit} команд
+ * и не больше собственного лимита каждого класса, сначала более приоритетные. Класс, не получивший ни одной
+ * отправки {@link #STARVATION_ROUNDS} раундов подряд, в следующем раунде обслуживается первым.
+ * Объекты команд берутся из пула, поэтому в установившемся режиме очередь не создает объектов.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class OutboundScheduler {
+
+    /** Количество раундов без отправок, после которого класс считается голодающим: {@value}. */
+    public static final int STARVATION_ROUNDS = 3;
+
+    /** Классы приоритета в порядке убывания. */
+    public enum Priority {
+        /** SETSTATUS, вызванные действиями пользователя */
+        ACTUATION,
+        /** Ответы IAMHERE */
+        DISCOVERY,
+        /** Фоновые GETSTATUS */
+        BACKGROUND
+    }
+
+    /**
+     * Исходящая команда. Номер пакета хаба назначается в момент отправки. Объекты команд переиспользуются
+     * планировщиком, поэтому команда действительна только до возврата из {@link Sender#send}.
+     */
+    public static final class Command {
+
+        /** Класс приоритета */
+        private Priority priority;
+
+        /** Команда протокола (см. {@link Payload}) */
+        private byte cmd;
+
+        /** Устройство-получатель, {@code null} - широковещательная рассылка */
+        private Device target;
+
+        /** Устанавливаемое значение для SETSTATUS */
+        private byte value;
+
+        private Command() {
+        }
+
+        public Priority priority() {
+            return priority;
+        }
+
+        public byte cmd() {
+            return cmd;
+        }
+
+        public Device target() {
+            return target;
+        }
+
+        public byte value() {
+            return value;
+        }
+    }
+
+    /** Отправка одной команды. */
+    @FunctionalInterface
+    public interface Sender {
+        void send(Command command) throws IOException;
+    }
+
+    private final ArrayDeque<Command>[] queues;
+
+    /** Отправленные и вытесненные команды для повторного использования */
+    private final ArrayDeque<Command> free = new ArrayDeque<>();
+
+    /** Лимиты отправок за раунд по классам */
+    private final int[] classLimits;
+
+    /** Общий лимит отправок за раунд */
+    private final int roundLimit;
+
+    /** Количество раундов подряд, в которые класс с непустой очередью ничего не отправил */
+    private final int[] starvedRounds;
+
+    /** Количество отправок класса в текущем раунде */
+    private final int[] sent;
+
+    public OutboundScheduler() {
+        this(32, 32, 8, 4);
+    }
+
+    /**
+     * @param roundLimit общий лимит отправок за раунд
+     * @param actuationLimit лимит {@link Priority#ACTUATION} за раунд
+     * @param discoveryLimit лимит {@link Priority#DISCOVERY} за раунд
+     * @param backgroundLimit лимит {@link Priority#BACKGROUND} за раунд
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public OutboundScheduler(int roundLimit, int actuationLimit, int discoveryLimit, int backgroundLimit) {
+        int classes = Priority.values().length;
+        this.queues = new ArrayDeque[classes];
+        for (int i = 0; i < classes; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        this.roundLimit = roundLimit;
+        this.classLimits = new int[] {actuationLimit, discoveryLimit, backgroundLimit};
+        this.starvedRounds = new int[classes];
+        this.sent = new int[classes];
+    }
+
+    /**
+     * Ставит команду в очередь. Неотправленный SETSTATUS тому же устройству заменяется новым на своем месте
+     * в очереди: ожидающая команда хранится в самом устройстве ({@link Device#getQueuedSetStatus()}),
+     * поэтому замена не требует прохода по очереди.
+     * @param priority класс приоритета
+     * @param cmd команда протокола (см. {@link Payload})
+     * @param target устройство-получатель, {@code null} - широковещательная рассылка
+     * @param value устанавливаемое значение для SETSTATUS
+     */
+    public void submit(Priority priority, byte cmd, Device target, byte value) {
+        boolean setStatus = priority == Priority.ACTUATION && target != null;
+        if (setStatus && target.getQueuedSetStatus() != null) {
+            Command queued = target.getQueuedSetStatus();
+            queued.cmd = cmd;
+            queued.value = value;
+            return;
+        }
+        Command command = free.poll();
+        if (command == null) {
+            command = new Command();
+        }
+        command.priority = priority;
+        command.cmd = cmd;
+        command.target = target;
+        command.value = value;
+        queues[priority.ordinal()].add(command);
+        if (setStatus) {
+            target.setQueuedSetStatus(command);
+        }
+    }
+
+    public boolean isEmpty() {
+        for (ArrayDeque<Command> queue : queues) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Проводит один раунд отправки.
+     * @param sender способ отправки команды
+     * @throws IOException при проблемах с отправкой
+     */
+    public void drain(Sender sender) throws IOException {
+        int budget = roundLimit;
+        for (int i = 0; i < queues.length; i++) {
+            sent[i] = 0;
+        }
+        for (int i = 0; i < queues.length && budget > 0; i++) {        // Сначала голодающие классы
+            if (starvedRounds[i] >= STARVATION_ROUNDS && !queues[i].isEmpty()) {
+                send(sender, queues[i].poll());
+                sent[i]++;
+                budget--;
+            }
+        }
+        for (int i = 0; i < queues.length; i++) {
+            while (budget > 0 && sent[i] < classLimits[i] && !queues[i].isEmpty()) {
+                send(sender, queues[i].poll());
+                sent[i]++;
+                budget--;
+            }
+        }
+        for (int i = 0; i < queues.length; i++) {
+            starvedRounds[i] = sent[i] == 0 && !queues[i].isEmpty() ? starvedRounds[i] + 1 : 0;
+        }
+    }
+
+    /**
+     * Отправляет команду и возвращает ее объект в пул.
+     */
+    private void send(Sender sender, Command command) throws IOException {
+        if (command.target != null && command.target.getQueuedSetStatus() == command) {
+            command.target.setQueuedSetStatus(null);
+        }
+        try {
+            sender.send(command);
+        } finally {
+            command.target = null;
+            free.add(command);
+        }
+    }
+}
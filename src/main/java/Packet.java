@@ -23,10 +23,8 @@ public class Packet {
     Packet(Payload payload) {
         this.length = payload.getLength();
         this.payload = payload;
-        byte[] bytes = new byte[payload.asBytes().getBytes().size()];
-        for (int i = 0; i < payload.asBytes().getBytes().size(); i++) {
-            bytes[i] = payload.asBytes().getBytes().get(i);
-        }
+        byte[] bytes = new byte[payload.size()];
+        payload.writeTo(bytes, 0);
         this.crc8 = computeCRC8(bytes);
     }
     Packet(byte[] packet) {
@@ -40,29 +38,76 @@ public class Packet {
      * @return Массив байт.
      */
     public byte[] asBytes() {
-        byte[] result = new byte[2 + payload.asBytes().getBytes().size()];
+        byte[] result = new byte[2 + payload.size()];
         result[0] = length;
-        for (int i = 1; i <= payload.asBytes().getBytes().size(); i++) {
-            result[i] = payload.asBytes().getBytes().get(i-1);
-        }
+        payload.writeTo(result, 1);
         result[result.length-1] = crc8;
         return result;
     }
 
+    /**
+     * Записывает пакет в массив без создания промежуточных объектов {@link Payload} и {@link Varuint}.
+     * @param packet массив байтов размером не меньше {@code offset} + длина пакета
+     * @param offset смещение, с которого записывается пакет
+     * @param src адрес отправителя
+     * @param dst адрес получателя
+     * @param serial номер пакета
+     * @param devType тип устройства
+     * @param cmd команда протокола
+     * @param body данные команды
+     * @param bodyLength количество используемых байтов {@code body}
+     * @return длина пакета в байтах
+     */
+    static int writeTo(byte[] packet, int offset, long src, long dst, long serial, byte devType, byte cmd,
+                       byte[] body, int bodyLength) {
+        int index = Varuint.write(src, packet, offset + 1);
+        index = Varuint.write(dst, packet, index);
+        index = Varuint.write(serial, packet, index);
+        packet[index++] = devType;
+        packet[index++] = cmd;
+        System.arraycopy(body, 0, packet, index, bodyLength);
+        index += bodyLength;
+        packet[offset] = (byte) (index - offset - 1);
+        packet[index] = computeCRC8(packet, offset + 1, index - offset - 1);
+        return index + 1 - offset;
+    }
+
     public Payload getPayload() {
         return payload;
     }
 
+    /**
+     * Проверяет контрольную сумму пакета, записанного в массиве начиная с {@code offset}, без копирования.
+     * @param packets массив байтов, содержащий пакет целиком
+     * @param offset смещение байта длины пакета
+     * @return {@code true}, если контрольная сумма совпадает с вычисленной по полю payload
+     */
+    static boolean hasValidCrc(byte[] packets, int offset) {
+        int length = packets[offset] & 0xFF;
+        return computeCRC8(packets, offset + 1, length) == packets[offset + length + 1];
+    }
+
     /**
      * Алгоритм вычисления контрольной суммы CRC8.
      * @param bytes Информация
      * @return Контрольная сумма в байтах
      */
     private static byte computeCRC8(byte[] bytes) {
+        return computeCRC8(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Алгоритм вычисления контрольной суммы CRC8 для части массива.
+     * @param bytes Информация
+     * @param offset Начало части
+     * @param length Длина части
+     * @return Контрольная сумма в байтах
+     */
+    private static byte computeCRC8(byte[] bytes, int offset, int length) {
         byte generator = 0x1D;
         byte crc = 0;
-        for (byte currByte : bytes) {
-            crc ^= currByte;
+        for (int j = offset; j < offset + length; j++) {
+            crc ^= bytes[j];
             for (int i = 0; i < 8; i++) {
                 if ((crc & 0x80) != 0) {
                     crc = (byte)((crc << 1) ^ generator);
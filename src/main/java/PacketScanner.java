@@ -0,0 +1,135 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Разбор пачки пакетов, принятой от сервера: по байтам длины определяются границы пакетов, затем проверяются
+ * контрольные суммы. Обрезанный последний пакет отбрасывается. Если пакетов не меньше порога
+ * (по умолчанию {@link #PARALLEL_THRESHOLD}), контрольные суммы проверяются параллельно
+ * в {@link ForkJoinPool#commonPool()}. Массивы границ и результатов проверки переиспользуются,
+ * поэтому экземпляр принадлежит одному потоку.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class PacketScanner {
+
+    /**
+     * Число пакетов, начиная с которого контрольные суммы проверяются параллельно: {@value}.
+     * Проверка пакета типичной длины занимает порядка 0,1-0,3 мкс, задача из {@link #CHUNK} пакетов - десятки
+     * микросекунд, что много больше затрат на ее запуск в пуле. Порог дает не меньше четырех задач, иначе
+     * делить работу почти не на что: на пачках до нескольких сотен пакетов параллельная проверка не быстрее
+     * последовательной. Измерение - {@code mvn test -Dtest=PacketScannerBenchmark}.
+     */
+    static final int PARALLEL_THRESHOLD = 1024;
+
+    /** Число пакетов, проверяемых одной задачей при параллельной проверке: {@value}. */
+    private static final int CHUNK = 256;
+
+    /** Порог параллельной проверки */
+    private final int parallelThreshold;
+
+    /** Смещения начала пакетов последней пачки, растет по мере необходимости */
+    private int[] offsets = new int[64];
+
+    /** Сошлась ли контрольная сумма пакета, растет по мере необходимости */
+    private boolean[] valid = new boolean[64];
+
+    PacketScanner() {
+        this(PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * @param parallelThreshold число пакетов, начиная с которого контрольные суммы проверяются параллельно
+     */
+    PacketScanner(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Находит пакеты в пачке и проверяет их контрольные суммы.
+     * @param bytes байты пакетов
+     * @param length длина пачки
+     * @return количество целых пакетов, см. {@link #getOffset} и {@link #isValid}
+     */
+    int scan(byte[] bytes, int length) {
+        int count = 0;
+        for (int i = 0; i < length; i += (bytes[i] & 0xFF) + 2) {
+            if (i + (bytes[i] & 0xFF) + 2 > length) {
+                break;      // Обрезанный последний пакет
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = i;
+        }
+        if (valid.length < count) {
+            valid = new boolean[offsets.length];
+        }
+        if (count >= parallelThreshold) {
+            ForkJoinPool.commonPool().invoke(new CheckTask(bytes, offsets, valid, 0, count));
+        } else {
+            for (int i = 0; i < count; i++) {
+                valid[i] = Packet.hasValidCrc(bytes, offsets[i]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param index номер пакета последней пачки
+     * @return смещение начала пакета
+     */
+    int getOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @param index номер пакета последней пачки
+     * @return сошлась ли контрольная сумма пакета
+     */
+    boolean isValid(int index) {
+        return valid[index];
+    }
+
+    /**
+     * Задача проверки контрольных сумм диапазона пакетов с известными границами. Делится пополам,
+     * пока диапазон больше {@link #CHUNK}.
+     */
+    private static class CheckTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Массив байтов пакетов */
+        private final byte[] packets;
+
+        /** Смещения начала пакетов в {@link #packets} */
+        private final int[] offsets;
+
+        /** Результат: сошлась ли контрольная сумма пакета */
+        private final boolean[] valid;
+
+        private final int from;
+        private final int to;
+
+        CheckTask(byte[] packets, int[] offsets, boolean[] valid, int from, int to) {
+            this.packets = packets;
+            this.offsets = offsets;
+            this.valid = valid;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CheckTask(packets, offsets, valid, from, middle),
+                        new CheckTask(packets, offsets, valid, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                valid[i] = Packet.hasValidCrc(packets, offsets[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.Arrays;
+
+/**
+ * Представление пакета, лежащего в массиве байтов, без копирования: поля разбираются на месте,
+ * данные команды читаются прямо из массива. Один экземпляр переиспользуется для всех пакетов пачки
+ * (см. {@link #wrap}), поэтому разбор не создает объектов {@link Packet}, {@link Payload} и {@link Varuint}.
+ * Экземпляр не потокобезопасен.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class PacketView {
+
+    /** Максимальная длина {@link Varuint}, умещающегося в {@code long}: 10 байт. */
+    private static final int MAX_VARUINT_LENGTH = 10;
+
+    private byte[] bytes;
+
+    /** Смещение байта длины пакета */
+    private int offset;
+
+    private long src;
+    private long dst;
+    private long serial;
+    private byte devType;
+    private byte cmd;
+
+    /** Смещение и длина данных команды, без crc8 */
+    private int bodyOffset;
+    private int bodyLength;
+
+    /**
+     * Разбирает пакет, записанный в массиве начиная с {@code offset}. Контрольная сумма не проверяется,
+     * см. {@link Packet#hasValidCrc(byte[], int)}.
+     * @param bytes массив байтов, содержащий пакет целиком
+     * @param offset смещение байта длины пакета
+     * @return {@code false}, если поля пакета не умещаются в его длину
+     */
+    public boolean wrap(byte[] bytes, int offset) {
+        this.bytes = bytes;
+        this.offset = offset;
+        int end = offset + 1 + (bytes[offset] & 0xFF);
+        int index = skipVaruint(offset + 1, end);
+        if (index < 0) {
+            return false;
+        }
+        src = Varuint.decode(bytes, offset + 1);
+        int dstStart = index;
+        index = skipVaruint(index, end);
+        if (index < 0) {
+            return false;
+        }
+        dst = Varuint.decode(bytes, dstStart);
+        int serialStart = index;
+        index = skipVaruint(index, end);
+        if (index < 0 || index + 2 > end) {
+            return false;
+        }
+        serial = Varuint.decode(bytes, serialStart);
+        devType = bytes[index];
+        cmd = bytes[index + 1];
+        bodyOffset = index + 2;
+        bodyLength = end - bodyOffset;
+        return true;
+    }
+
+    /** Смещение, следующее за {@link Varuint}, или -1, если число не умещается до {@code end}. */
+    private int skipVaruint(int index, int end) {
+        int limit = Math.min(end, index + MAX_VARUINT_LENGTH);
+        for (; index < limit; index++) {
+            if (bytes[index] >= 0) {
+                return index + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Копия пакета в виде {@link Packet}, для редких команд, разбор которых требует объектов.
+     * @return {@link Packet}
+     */
+    public Packet toPacket() {
+        return new Packet(Arrays.copyOfRange(bytes, offset, bodyOffset + bodyLength + 1));
+    }
+
+    public long getSrc() {
+        return src;
+    }
+
+    public long getDst() {
+        return dst;
+    }
+
+    public long getSerial() {
+        return serial;
+    }
+
+    public byte getDevType() {
+        return devType;
+    }
+
+    public byte getCmd() {
+        return cmd;
+    }
+
+    /** @return массив, в котором лежит пакет */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /** @return смещение данных команды в {@link #getBytes()} */
+    public int getBodyOffset() {
+        return bodyOffset;
+    }
+
+    /** @return длина данных команды без crc8 */
+    public int getBodyLength() {
+        return bodyLength;
+    }
+}
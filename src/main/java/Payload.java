@@ -1,6 +1,4 @@
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 /**
  * Класс, описывающий полезные данные, передаваемые в пакете, конкретный формат данных для каждого типа пакета отличается.
@@ -74,18 +72,12 @@ public class Payload {
             this.dst = new Varuint(payload[index]);
             index++;
         }
-        List<Byte> serialBytesList = new ArrayList<>();
+        int serialStart = index;
         while (payload[index] < 0) {
-            serialBytesList.add(payload[index]);
             index++;
         }
-        serialBytesList.add(payload[index]);
         index++;
-        byte[] serialBytes = new byte[serialBytesList.size()];
-        for (int i = 0; i < serialBytes.length; i++) {
-            serialBytes[i] = serialBytesList.get(i);
-        }
-        this.serial = new Varuint(serialBytes);
+        this.serial = new Varuint(Arrays.copyOfRange(payload, serialStart, index));
         this.devType = payload[index];
         this.cmd = payload[index + 1];
         this.cmdBody = cmdBodyByDeviceAndType(this.devType, this.cmd, Arrays.copyOfRange(payload, index+2, payload.length));
@@ -119,11 +111,8 @@ public class Payload {
                 switch (cmd) {
                     case 1, 2 -> {
                         byte[][] result = new byte[2][];
-                        byte sensors = bodyBytes[0];
-                        result[0][0] = sensors;
-                        for (int i = 1; i < bodyBytes.length; i++) {
-                            result[1][0] = bodyBytes[i];                // triggers
-                        }
+                        result[0] = Arrays.copyOfRange(bodyBytes, 0, bodyBytes[0]+1);                  // name
+                        result[1] = Arrays.copyOfRange(bodyBytes, bodyBytes[0]+1, bodyBytes.length-1); // sensors, triggers
                         return result;
                     }
                     case 4 -> {
@@ -179,8 +168,43 @@ public class Payload {
         return result;
     }
 
+    /**
+     * Размер полезной нагрузки в байтах.
+     * @return количество байтов в представлении {@link #asBytes()}
+     */
+    public int size() {
+        int size = src.getValue().length + dst.getValue().length + serial.getValue().length + 2;
+        for (byte[] arr : this.cmdBody) {
+            size += arr.length;
+        }
+        return size;
+    }
+
+    /**
+     * Записывает полезную нагрузку в массив без упаковки байтов в объекты.
+     * @param bytes массив байтов размером не меньше {@code offset + }{@link #size()}
+     * @param offset смещение первого байта
+     * @return смещение, следующее за последним записанным байтом
+     */
+    public int writeTo(byte[] bytes, int offset) {
+        offset = copy(src.getValue(), bytes, offset);
+        offset = copy(dst.getValue(), bytes, offset);
+        offset = copy(serial.getValue(), bytes, offset);
+        bytes[offset++] = devType;
+        bytes[offset++] = cmd;
+        for (byte[] arr : this.cmdBody) {
+            offset = copy(arr, bytes, offset);
+        }
+        return offset;
+    }
+
+    private static int copy(byte[] from, byte[] to, int offset) {
+        System.arraycopy(from, 0, to, offset, from.length);
+        return offset + from.length;
+    }
+
     public byte getLength() {
-        return (byte) this.asBytes().getBytes().size();
+        return (byte) size();
     }
 
     public long getSrcAsLong() {
@@ -0,0 +1,392 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Минимальный клиент HTTP/1.1 для обмена с сервером умного дома через неблокирующий {@link SocketChannel}.
+ * Рассчитан только на POST-запросы с телом в base64, которые использует хаб: несколько запросов отправляются
+ * по одному соединению без ожидания ответов (pipelining) одной записью со сбором из буферов (gathering write),
+ * ответы разбираются прямо из буфера чтения в {@link Inbound} без промежуточных строк. Буферы запросов и ответов
+ * принадлежат потоку, а не клиенту (см. {@link #BUFFERS}), поэтому клиенты многих хабов в одном потоке
+ * не держат каждый свои буферы (около 180 КБ), и в установившемся режиме обмен не создает объектов. <p>
+ * Поддерживаются только ответы с {@code Content-Length}. Запросы хаба не идемпотентны, поэтому повторно
+ * отправляются только те, которые сервер заведомо не обработал: остаток пачки после ответа с
+ * {@code Connection: close} и пачка целиком, если простаивавшее keep-alive соединение оказалось закрыто
+ * до первого байта ответа. Если соединение оборвалось после хотя бы одного ответа пачки, сервер мог
+ * обработать и следующие запросы, и обмен завершается ошибкой.
+ * Экземпляр не потокобезопасен. Пачка накапливается и отправляется в одном потоке, между пачками
+ * клиент может переходить от потока к потоку.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class PipelinedHttpClient implements Transport {
+
+    /** Максимальное число запросов в одной пачке: {@value}. */
+    public static final int MAX_PIPELINE = 64;
+
+    /** Максимальная длина тела запроса: {@value}. */
+    public static final int MAX_BODY = 2048;
+
+    /** Максимальная длина заголовков запроса до значения {@code Content-Length}: {@value}. */
+    private static final int MAX_HEAD = 512;
+
+    /** Место под значение {@code Content-Length} и пустую строку после заголовков */
+    private static final int MAX_HEAD_TAIL = 16;
+
+    private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION_CLOSE = "connection: close".getBytes(StandardCharsets.US_ASCII);
+
+    /** Обработчик готовых ключей для {@link Selector#select(Consumer, long)}: ключ у селектора один */
+    private static final Consumer<SelectionKey> IGNORE_KEY = key -> {};
+
+    /** Буферы пачки, общие для клиентов одного потока */
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    /** Буферы пачки одного потока. В каждый момент ими пользуется не больше одного клиента - {@link #owner}. */
+    private static final class Buffers {
+
+        /** Запросы текущей пачки целиком: заголовки и тела */
+        private final ByteBuffer requests = ByteBuffer.allocateDirect(MAX_PIPELINE * (MAX_HEAD + MAX_HEAD_TAIL + MAX_BODY));
+
+        /**
+         * Части запросов для gathering write: по участку {@link #requests} на запрос.
+         * Создаются один раз и перед каждой записью перематываются, поэтому пачку можно отправить повторно.
+         */
+        private final ByteBuffer[] parts = new ByteBuffer[MAX_PIPELINE];
+
+        private ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+
+        /** Тело ответа в base64, скопированное из {@link #readBuffer} для декодирования */
+        private byte[] body = new byte[4096];
+
+        /** Клиент, накапливающий пачку в {@link #requests}, или {@code null} */
+        private PipelinedHttpClient owner;
+
+        Buffers() {
+            for (int i = 0; i < MAX_PIPELINE; i++) {
+                parts[i] = requests.duplicate();
+            }
+        }
+    }
+
+    private final InetSocketAddress address;
+
+    /** Время ожидания ответа в миллисекундах */
+    private final int timeout;
+
+    /** Неизменная часть заголовков запроса, до значения {@code Content-Length} */
+    private final byte[] head;
+
+    /** Границы запросов в {@link Buffers#requests}: i-й запрос занимает {@code [bounds[i], bounds[i + 1])} */
+    private final int[] bounds = new int[MAX_PIPELINE + 1];
+
+    private int pending;
+
+    /** Буферы потока, в котором накапливается текущая пачка */
+    private Buffers buffers;
+
+    private SocketChannel channel;
+    private Selector selector;
+
+    /**
+     * @param url ссылка на сервер умного дома (только {@code http})
+     * @param timeout время ожидания ответа в миллисекундах
+     */
+    public PipelinedHttpClient(URL url, int timeout) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        this.address = new InetSocketAddress(url.getHost(), port);
+        this.timeout = timeout;
+        String path = url.getFile().isEmpty() ? "/" : url.getFile();
+        this.head = ("POST " + path + " HTTP/1.1\r\n" +
+                "Host: " + url.getHost() + ":" + port + "\r\n" +
+                "Content-Type: application/x-www-form-urlencoded\r\n" +
+                "Accept: application/x-www-form-urlencoded\r\n" +
+                "Content-Length: ").getBytes(StandardCharsets.US_ASCII);
+        if (head.length > MAX_HEAD) {
+            throw new IllegalArgumentException("URL is too long: " + url);
+        }
+    }
+
+    /**
+     * Добавляет запрос в текущую пачку.
+     * @param body тело запроса (пакеты в base64)
+     * @param length длина тела
+     * @throws IllegalStateException если пачка заполнена, тело слишком длинное или в этом потоке
+     * пачку накапливает другой клиент
+     */
+    public void add(byte[] body, int length) {
+        if (pending == MAX_PIPELINE || length > MAX_BODY) {
+            throw new IllegalStateException("Pipeline overflow");
+        }
+        if (pending == 0) {
+            buffers = BUFFERS.get();
+            if (buffers.owner != null && buffers.owner != this) {
+                throw new IllegalStateException("Another client has a pending batch on this thread");
+            }
+            buffers.owner = this;
+            buffers.requests.clear();
+        }
+        ByteBuffer requests = buffers.requests;
+        requests.put(head);
+        putDecimal(requests, length);
+        requests.put((byte) '\r').put((byte) '\n').put((byte) '\r').put((byte) '\n');
+        requests.put(body, 0, length);
+        bounds[++pending] = requests.position();
+    }
+
+    public int size() {
+        return pending;
+    }
+
+    /**
+     * Добавляет запрос в пачку. Если пачка заполнена, она предварительно отправляется.
+     */
+    @Override
+    public void send(byte[] body, int length, Inbound responses) throws IOException {
+        if (pending == MAX_PIPELINE) {
+            exchange(responses);
+        }
+        add(body, length);
+    }
+
+    /**
+     * Отправляет накопленную пачку, см. {@link #exchange}.
+     */
+    @Override
+    public void flush(Inbound responses) throws IOException {
+        exchange(responses);
+    }
+
+    /**
+     * Отправляет накопленные запросы одной записью и читает ответы. После ответа с {@code Connection: close}
+     * неотвеченные запросы отправляются по новому соединению. Если закрытым оказалось соединение, оставшееся
+     * от прошлых пачек, и по нему не получено ни байта ответа, пачка отправляется повторно по новому соединению.
+     * @param responses приемник, в который по порядку дописываются пакеты из ответов
+     * @throws IOException при проблемах с соединением, по истечении времени ожидания, при неожиданном коде ответа
+     * или если соединение оборвалось, когда сервер мог уже обработать часть запросов
+     */
+    public void exchange(Inbound responses) throws IOException {
+        int count = pending;
+        if (count == 0) {
+            return;
+        }
+        pending = 0;
+        try {
+            buffers.readBuffer.clear().flip();      // Непрочитанных ответов между пачками нет
+            int received = 0;
+            while (received < count) {
+                boolean reused = channel != null && channel.isOpen();
+                int receivedHere = 0;
+                try {
+                    ensureConnected();
+                    write(received, count);
+                    do {
+                        readResponse(responses);
+                        received++;
+                        receivedHere++;
+                    } while (received < count && channel.isOpen());    // Connection: close - остальные заново
+                } catch (IOException e) {
+                    closeChannel();
+                    if (!reused || receivedHere > 0 || e instanceof SocketTimeoutException
+                            || e instanceof ProtocolException || buffers.readBuffer.hasRemaining()) {
+                        throw e;        // Сервер мог обработать запросы после последнего ответа
+                    }
+                }
+            }
+        } finally {
+            buffers.owner = null;
+            buffers = null;
+        }
+    }
+
+    private static void putDecimal(ByteBuffer buffer, int value) {
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    private void ensureConnected() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            return;
+        }
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        selector = Selector.open();
+        channel.connect(address);
+        channel.register(selector, SelectionKey.OP_CONNECT);
+        while (!channel.finishConnect()) {
+            await();
+        }
+        buffers.readBuffer.clear().flip();
+    }
+
+    /**
+     * Записывает запросы пачки с {@code from} по {@code to} (не включая) одной записью со сбором из буферов.
+     */
+    private void write(int from, int to) throws IOException {
+        ByteBuffer[] parts = buffers.parts;
+        for (int i = from; i < to; i++) {
+            parts[i].clear().position(bounds[i]).limit(bounds[i + 1]);
+        }
+        SelectionKey key = channel.keyFor(selector);
+        key.interestOps(SelectionKey.OP_WRITE);
+        int index = from;
+        int end = to;
+        while (index < end) {
+            channel.write(parts, index, end - index);
+            while (index < end && !parts[index].hasRemaining()) {
+                index++;
+            }
+            if (index < end) {
+                await();
+            }
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Читает и разбирает один ответ, пакеты из него дописываются в {@code responses}. {@link #readBuffer}
+     * находится в режиме чтения, непрочитанные байты следующих ответов остаются в нем.
+     */
+    private void readResponse(Inbound responses) throws IOException {
+        ByteBuffer readBuffer = buffers.readBuffer;
+        int headerEnd;
+        while ((headerEnd = indexOfHeaderEnd()) < 0) {
+            readBuffer = fill();
+        }
+        int start = readBuffer.position();
+        int code = (readBuffer.get(start + 9) - '0') * 100 + (readBuffer.get(start + 10) - '0') * 10
+                + (readBuffer.get(start + 11) - '0');
+        int contentLength = 0;
+        boolean close = false;
+        for (int line = start; line < headerEnd; ) {
+            int lineEnd = line;
+            while (readBuffer.get(lineEnd) != '\r') {
+                lineEnd++;
+            }
+            if (startsWithIgnoreCase(line, lineEnd, CONTENT_LENGTH)) {
+                for (int i = line + CONTENT_LENGTH.length; i < lineEnd; i++) {
+                    byte b = readBuffer.get(i);
+                    if (b >= '0' && b <= '9') {
+                        contentLength = contentLength * 10 + (b - '0');
+                    }
+                }
+            } else if (startsWithIgnoreCase(line, lineEnd, CONNECTION_CLOSE)) {
+                close = true;
+            }
+            line = lineEnd + 2;
+        }
+        readBuffer.position(headerEnd + 4);
+        while (readBuffer.remaining() < contentLength) {
+            readBuffer = fill();
+        }
+        int bodyStart = readBuffer.position();
+        int bodyEnd = bodyStart + contentLength;
+        while (bodyEnd > bodyStart && (readBuffer.get(bodyEnd - 1) == '\n' || readBuffer.get(bodyEnd - 1) == '\r')) {
+            bodyEnd--;
+        }
+        readBuffer.position(bodyStart + contentLength);
+        if (close) {
+            closeChannel();
+        }
+        if (responses.accept(code) && bodyEnd > bodyStart) {
+            if (buffers.body.length < bodyEnd - bodyStart) {
+                buffers.body = new byte[Math.max(buffers.body.length * 2, bodyEnd - bodyStart)];
+            }
+            byte[] body = buffers.body;
+            readBuffer.get(bodyStart, body, 0, bodyEnd - bodyStart);
+            responses.appendBase64(body, 0, bodyEnd - bodyStart);
+        }
+    }
+
+    /** Смещение {@code \r\n\r\n} в буфере чтения или -1. */
+    private int indexOfHeaderEnd() {
+        ByteBuffer readBuffer = buffers.readBuffer;
+        for (int i = readBuffer.position(); i + 3 < readBuffer.limit(); i++) {
+            if (readBuffer.get(i) == '\r' && readBuffer.get(i + 1) == '\n'
+                    && readBuffer.get(i + 2) == '\r' && readBuffer.get(i + 3) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean startsWithIgnoreCase(int from, int to, byte[] token) {
+        ByteBuffer readBuffer = buffers.readBuffer;
+        if (to - from < token.length) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            byte b = readBuffer.get(from + i);
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != token[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Дочитывает данные из канала в буфер, при необходимости увеличивая его.
+     * @return буфер чтения, возможно новый
+     */
+    private ByteBuffer fill() throws IOException {
+        ByteBuffer readBuffer = buffers.readBuffer.compact();
+        if (!readBuffer.hasRemaining()) {
+            readBuffer = ByteBuffer.allocateDirect(readBuffer.capacity() * 2).put(readBuffer.flip());
+            buffers.readBuffer = readBuffer;
+        }
+        int read;
+        while ((read = channel.read(readBuffer)) == 0) {
+            await();
+        }
+        readBuffer.flip();
+        if (read < 0) {
+            closeChannel();
+            throw new IOException("Connection closed before all responses were received");
+        }
+        return readBuffer;
+    }
+
+    private void await() throws IOException {
+        if (selector.select(IGNORE_KEY, timeout) == 0) {
+            throw new SocketTimeoutException("No response from " + address + " in " + timeout + " ms");
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            selector.close();
+        }
+    }
+
+    /**
+     * Закрывает соединение. Неотправленная пачка отбрасывается, и буферы потока освобождаются для других клиентов.
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffers != null && buffers.owner == this) {
+            buffers.owner = null;
+        }
+        buffers = null;
+        pending = 0;
+        closeChannel();
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Таблица устройств, от которых хаб ждет ответа. Крайние сроки отсчитываются во времени модели,
+ * которое сообщает {@link DeviceType#CLOCK}. Любой ответ устройства считается ответом на все его запросы,
+ * поэтому для устройства хранится только срок самого раннего неотвеченного запроса. Записи устройств
+ * переиспользуются, и в установившемся режиме операции не создают объектов.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class RequestTracker {
+
+    /** Время ожидания ответа устройства в тиках модельного времени: {@value}. */
+    public static final long REPLY_DEADLINE = 300;
+
+    /** Ожидание ответа одного устройства. В очереди, пока есть неотвеченные запросы. */
+    private static final class Entry extends DeadlineQueue.Node {
+
+        /** Адрес устройства-получателя */
+        private final long dst;
+
+        Entry(long dst) {
+            this.dst = dst;
+        }
+    }
+
+    /** Записи по адресу получателя */
+    private final LongMap<Entry> entries = new LongMap<>();
+
+    /** Устройства с неотвеченными запросами по возрастанию крайнего срока */
+    private final DeadlineQueue<Entry> deadlines = new DeadlineQueue<>();
+
+    /** Последнее известное время модели. */
+    private long currentTick;
+
+    /**
+     * Регистрирует запрос, на который устройство должно ответить.
+     * @param dst адрес устройства-получателя
+     * @param sentAt время отправки запроса в тиках
+     */
+    public void expectReply(long dst, long sentAt) {
+        Entry entry = entries.get(dst);
+        if (entry == null) {
+            entry = new Entry(dst);
+            entries.put(dst, entry);
+        }
+        long deadline = sentAt + REPLY_DEADLINE;
+        if (!entry.isQueued() || deadline < entry.getDeadline()) {
+            deadlines.schedule(entry, deadline);
+        }
+    }
+
+    /**
+     * Отмечает, что устройство ответило: все его запросы считаются отвеченными.
+     * @param src адрес ответившего устройства
+     */
+    public void acknowledge(long src) {
+        Entry entry = entries.get(src);
+        if (entry != null) {
+            deadlines.remove(entry);
+        }
+    }
+
+    /**
+     * Продвигает время модели. Устройства, не ответившие в срок, выдает {@link #pollExpired()}.
+     * @param tick текущее время модели
+     */
+    public void advance(long tick) {
+        currentTick = Math.max(currentTick, tick);
+    }
+
+    /**
+     * Снимает очередное устройство, не ответившее в срок.
+     * @return адрес устройства или -1, если таких больше нет
+     */
+    public long pollExpired() {
+        Entry first = deadlines.peek();
+        if (first == null || first.getDeadline() >= currentTick) {
+            return -1;
+        }
+        deadlines.remove(first);
+        return first.dst;
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+}
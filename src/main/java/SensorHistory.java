@@ -0,0 +1,203 @@
+/**
+ * История показаний одного датчика {@link DeviceType#ENVSENSOR} фиксированного размера. Для каждого канала
+ * (температура, влажность, освещенность, загрязнение воздуха) хранятся последние {@link #RAW_CAPACITY} показаний
+ * с временем в тиках, более старые показания прореживаются: каждые {@link #DOWNSAMPLE} вытесненных показаний
+ * сворачиваются в одну корзину (min, max, сумма, количество), хранится {@link #COARSE_CAPACITY} последних корзин.
+ * Данные лежат по столбцам в массивах {@code long}, запись и запросы не создают объектов.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class SensorHistory {
+
+    /** Количество каналов датчика: {@value}. */
+    public static final int CHANNELS = 4;
+
+    /** Количество последних показаний канала, хранимых без прореживания: {@value}. */
+    public static final int RAW_CAPACITY = 32;
+
+    /** Количество показаний, сворачиваемых в одну корзину: {@value}. */
+    public static final int DOWNSAMPLE = 8;
+
+    /** Количество хранимых корзин канала: {@value}. */
+    public static final int COARSE_CAPACITY = 32;
+
+    /** Битовая маска датчиков устройства: 0x1 - температура, 0x2 - влажность, 0x4 - освещенность, 0x8 - загрязнение */
+    private int sensors;
+
+    private final long[] rawTicks = new long[CHANNELS * RAW_CAPACITY];
+    private final long[] rawValues = new long[CHANNELS * RAW_CAPACITY];
+    /** Индекс самого старого показания канала */
+    private final int[] rawHead = new int[CHANNELS];
+    private final int[] rawSize = new int[CHANNELS];
+
+    private final long[] coarseFrom = new long[CHANNELS * COARSE_CAPACITY];
+    private final long[] coarseTo = new long[CHANNELS * COARSE_CAPACITY];
+    private final long[] coarseMin = new long[CHANNELS * COARSE_CAPACITY];
+    private final long[] coarseMax = new long[CHANNELS * COARSE_CAPACITY];
+    private final long[] coarseSum = new long[CHANNELS * COARSE_CAPACITY];
+    private final int[] coarseHead = new int[CHANNELS];
+    private final int[] coarseSize = new int[CHANNELS];
+
+    /** Незаполненная корзина канала: показания, уже вытесненные из последних, но еще не свернутые */
+    private final long[] pendingFrom = new long[CHANNELS];
+    private final long[] pendingTo = new long[CHANNELS];
+    private final long[] pendingMin = new long[CHANNELS];
+    private final long[] pendingMax = new long[CHANNELS];
+    private final long[] pendingSum = new long[CHANNELS];
+    private final int[] pendingCount = new int[CHANNELS];
+
+    public SensorHistory(int sensors) {
+        this.sensors = sensors;
+    }
+
+    public int getSensors() {
+        return sensors;
+    }
+
+    public void setSensors(int sensors) {
+        this.sensors = sensors;
+    }
+
+    /**
+     * Номер канала, которому соответствует {@code index}-е значение в STATUS:
+     * значения идут в порядке установленных битов {@link #sensors}.
+     * @param index номер значения в пакете
+     * @return номер канала или -1, если значение лишнее
+     */
+    public int channelOf(int index) {
+        if (sensors == 0) {
+            return index < CHANNELS ? index : -1;       // Маска неизвестна
+        }
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            if ((sensors & (1 << channel)) != 0 && index-- == 0) {
+                return channel;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Добавляет показание канала.
+     * @param channel номер канала
+     * @param tick время показания
+     * @param value значение
+     */
+    public void record(int channel, long tick, long value) {
+        int base = channel * RAW_CAPACITY;
+        if (rawSize[channel] == RAW_CAPACITY) {
+            int oldest = base + rawHead[channel];
+            downsample(channel, rawTicks[oldest], rawValues[oldest]);
+            rawTicks[oldest] = tick;
+            rawValues[oldest] = value;
+            rawHead[channel] = (rawHead[channel] + 1) % RAW_CAPACITY;
+        } else {
+            int index = base + (rawHead[channel] + rawSize[channel]) % RAW_CAPACITY;
+            rawTicks[index] = tick;
+            rawValues[index] = value;
+            rawSize[channel]++;
+        }
+    }
+
+    private void downsample(int channel, long tick, long value) {
+        if (pendingCount[channel] == 0) {
+            pendingFrom[channel] = tick;
+            pendingMin[channel] = value;
+            pendingMax[channel] = value;
+            pendingSum[channel] = 0;
+        }
+        pendingTo[channel] = tick;
+        pendingMin[channel] = Math.min(pendingMin[channel], value);
+        pendingMax[channel] = Math.max(pendingMax[channel], value);
+        pendingSum[channel] += value;
+        if (++pendingCount[channel] < DOWNSAMPLE) {
+            return;
+        }
+        int base = channel * COARSE_CAPACITY;
+        int index;
+        if (coarseSize[channel] == COARSE_CAPACITY) {
+            index = base + coarseHead[channel];
+            coarseHead[channel] = (coarseHead[channel] + 1) % COARSE_CAPACITY;
+        } else {
+            index = base + (coarseHead[channel] + coarseSize[channel]) % COARSE_CAPACITY;
+            coarseSize[channel]++;
+        }
+        coarseFrom[index] = pendingFrom[channel];
+        coarseTo[index] = pendingTo[channel];
+        coarseMin[index] = pendingMin[channel];
+        coarseMax[index] = pendingMax[channel];
+        coarseSum[index] = pendingSum[channel];
+        pendingCount[channel] = 0;
+    }
+
+    /**
+     * Считает min/max/avg канала за интервал времени. Последние показания учитываются точно, прореженные -
+     * целыми корзинами, пересекающимися с интервалом.
+     * @param channel номер канала
+     * @param fromTick начало интервала (включительно)
+     * @param toTick конец интервала (включительно)
+     * @param stats результат, перезаписывается
+     * @return {@code stats}
+     */
+    public RangeStats query(int channel, long fromTick, long toTick, RangeStats stats) {
+        stats.reset();
+        int coarseBase = channel * COARSE_CAPACITY;
+        for (int i = 0; i < coarseSize[channel]; i++) {
+            int index = coarseBase + (coarseHead[channel] + i) % COARSE_CAPACITY;
+            if (coarseFrom[index] <= toTick && coarseTo[index] >= fromTick) {
+                stats.add(coarseMin[index], coarseMax[index], coarseSum[index], DOWNSAMPLE);
+            }
+        }
+        if (pendingCount[channel] > 0 && pendingFrom[channel] <= toTick && pendingTo[channel] >= fromTick) {
+            stats.add(pendingMin[channel], pendingMax[channel], pendingSum[channel], pendingCount[channel]);
+        }
+        int rawBase = channel * RAW_CAPACITY;
+        for (int i = 0; i < rawSize[channel]; i++) {
+            int index = rawBase + (rawHead[channel] + i) % RAW_CAPACITY;
+            if (rawTicks[index] >= fromTick && rawTicks[index] <= toTick) {
+                stats.add(rawValues[index], rawValues[index], rawValues[index], 1);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Изменяемый результат запроса {@link #query}. Переиспользуется между запросами.
+     */
+    public static class RangeStats {
+        private long count;
+        private long min;
+        private long max;
+        private long sum;
+
+        void reset() {
+            count = 0;
+            min = Long.MAX_VALUE;
+            max = Long.MIN_VALUE;
+            sum = 0;
+        }
+
+        void add(long min, long max, long sum, long count) {
+            this.min = Math.min(this.min, min);
+            this.max = Math.max(this.max, max);
+            this.sum += sum;
+            this.count += count;
+        }
+
+        /** @return количество учтенных показаний, 0 - за интервал показаний нет */
+        public long getCount() {
+            return count;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getAverage() {
+            return count == 0 ? Double.NaN : (double) sum / count;
+        }
+    }
+}
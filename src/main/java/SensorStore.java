@@ -0,0 +1,76 @@
+/**
+ * Хранилище истории показаний датчиков {@link DeviceType#ENVSENSOR}, см. {@link SensorHistory}.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class SensorStore {
+
+    /** История показаний в виде Адрес датчика-История */
+    private final LongMap<SensorHistory> histories = new LongMap<>();
+
+    /**
+     * Регистрирует датчик или обновляет набор его каналов.
+     * @param address адрес датчика
+     * @param sensors битовая маска каналов из WHOISHERE/IAMHERE
+     */
+    public void register(long address, int sensors) {
+        SensorHistory history = histories.get(address);
+        if (history == null) {
+            histories.put(address, new SensorHistory(sensors));
+        } else {
+            history.setSensors(sensors);
+        }
+    }
+
+    /**
+     * Сохраняет показания из STATUS датчика.
+     * @param address адрес датчика
+     * @param tick время модели
+     * @param values тело команды STATUS: количество значений, затем значения {@link Varuint}
+     */
+    public void record(long address, long tick, byte[] values) {
+        record(address, tick, values, 0, values.length);
+    }
+
+    /**
+     * Сохраняет показания из STATUS датчика, записанного в массиве, без копирования.
+     * @param address адрес датчика
+     * @param tick время модели
+     * @param bytes массив, содержащий тело команды STATUS
+     * @param offset смещение тела
+     * @param length длина тела
+     */
+    public void record(long address, long tick, byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        SensorHistory history = histories.get(address);
+        if (history == null) {
+            history = new SensorHistory(0);
+            histories.put(address, history);
+        }
+        int end = offset + length;
+        int count = bytes[offset] & 0xFF;
+        int index = offset + 1;
+        for (int i = 0; i < count && index < end; i++) {
+            long value = Varuint.decode(bytes, index);
+            while (bytes[index] < 0) {
+                index++;
+            }
+            index++;
+            int channel = history.channelOf(i);
+            if (channel >= 0) {
+                history.record(channel, tick, value);
+            }
+        }
+    }
+
+    /**
+     * История показаний датчика.
+     * @param address адрес датчика
+     * @return {@link SensorHistory} или {@code null}, если датчик неизвестен
+     */
+    public SensorHistory get(long address) {
+        return histories.get(address);
+    }
+}
@@ -1,14 +1,24 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URL;
-import java.net.HttpURLConnection;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
  * Класс хаба умного дома
+ * <p>
+ * После выявления устройств хаб работает в установившемся режиме без выделения памяти: ответы сервера принимаются
+ * в переиспользуемые {@link Inbound}, пакеты разбираются на месте через {@link PacketView}, таблицы устройств,
+ * ожиданий ответа и опроса имеют ключи {@code long}, а команды и буферы кодирования переиспользуются.
+ * Объекты создаются только при выявлении новых устройств, при наличии подписчиков {@link HubState#getEvents()},
+ * при построении снимков {@link HubState#getSnapshot()} (если они включены) и самим {@link Transport}:
+ * {@link HttpTransport} создает соединение на запрос, {@link PipelinedHttpClient} объектов не создает.
  * @author Mikhail Semenov
  * @version 1.0
  */
@@ -17,166 +27,541 @@ public class SmartHub {
     /** Широковещательный адрес: {@value}. */
     public static final long BROADCAST_ADDRESS = 0x3FFF;
 
+    /**
+     * Режим упреждающего опроса сервера (двойная буферизация), включается свойством
+     * {@code -Dsmarthub.prefetchPolling=true}. См. {@link #monitorRequests}.
+     */
+    private static final boolean PREFETCH_POLLING = Boolean.getBoolean("smarthub.prefetchPolling");
+
+    /**
+     * Обмен с сервером конвейером через {@link PipelinedHttpClient},
+     * включается свойством {@code -Dsmarthub.transport=nio}. Иначе используется {@link HttpTransport}.
+     */
+    private static final boolean PIPELINED_TRANSPORT = "nio".equals(System.getProperty("smarthub.transport"));
+
+    /** Максимальная длина пакета GETSTATUS: три varuint по 10 байт, тип, команда, длина и crc8. */
+    private static final int MAX_GETSTATUS_LENGTH = 34;
+
+    /** Порт {@link StatusServer} на loopback-интерфейсе, 0 - сервер не запускается. */
+    private static final int STATUS_PORT = Integer.getInteger("smarthub.statusPort", 0);
+
+    /** Тело запроса опроса сервера */
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    /**
+     * Переиспользуемые буферы ввода-вывода. У каждого потока свои, поэтому в установившемся режиме
+     * кодирование исходящих пакетов и разбор ответов сервера не создают новых объектов.
+     */
+    private static final ThreadLocal<IoBuffers> IO_BUFFERS = ThreadLocal.withInitial(IoBuffers::new);
+
+    /** Буферы ввода-вывода одного потока. См. {@link #IO_BUFFERS}. */
+    private static class IoBuffers {
+
+        /** Максимальная длина пакета: байт длины, до 255 байт payload и crc8. */
+        private final byte[] packet = new byte[257];
+
+        /** Пакет в кодировке base64 */
+        private final byte[] encoded = new byte[344];
+
+        /** Данные команды SETSTATUS */
+        private final byte[] body = new byte[1];
+
+        /** Пакеты GETSTATUS раунда, отправляемые одним запросом */
+        private final byte[] batch = new byte[1024];
+
+        /** Количество занятых байтов {@link #batch} */
+        private int batchLength;
+
+        /** {@link #batch} в кодировке base64 */
+        private final byte[] batchEncoded = new byte[1368];
+
+        /** Пакеты, полученные опросом сервера */
+        private final Inbound polled = new Inbound();
+
+        /**
+         * Пакеты из ответов на запросы хаба, еще не обработанные. Сервер отвечает на любой запрос накопившимися
+         * для хаба пакетами, поэтому ответы на запросы раунда разбираются так же, как результат опроса.
+         */
+        private final Inbound responses = new Inbound();
+
+        /** Границы и контрольные суммы пакетов пачки */
+        private final PacketScanner scanner = new PacketScanner();
+
+        /** Разбираемый пакет */
+        private final PacketView view = new PacketView();
+
+        /** Отправка команд раунда */
+        private final RoundSender sender = new RoundSender(this);
+    }
+
     /**
      * Точка входа в программу.
      * @param args Массив аргументов командной строки. <p>
      * {@code args[0]} - ссылка на сервер умного дома <p>
-     * {@code args[1]} - адрес хаба.
+     * {@code args[1]} - адрес хаба. <p>
+     * Если задано свойство {@code -Dsmarthub.statusPort}, снимок состояния хаба доступен по HTTP (см. {@link StatusServer}),
+     * иначе снимки не строятся.
      */
     public static void main(String[] args) {
         long hubAddress = Integer.parseInt(args[1], 16);
-        Map<Long, Device> devices = new HashMap<>(Map.of(hubAddress, new Device(hubAddress,
-                DeviceType.SMARTHUB, "HUB01", 1)));
         try {
-            URL url = new URL(args[0]);
-            sendWHOISHERE(url, new Packet(new Payload(hubAddress,             // WHOISHERE
-                            BROADCAST_ADDRESS,
-                            1,
-                            (byte) 0x01,
-                            (byte) 0x01,
-                            new byte[][]{new PacketString("HUB01").getBytes()})),
-                    devices);
-            List<Packet> statuses = new ArrayList<>();
-            for (Device device : devices.values()) {
-                devices.get(hubAddress).incrementSerial();
-                long start = sendGetStatus(device, url, hubAddress, devices.get(hubAddress).getSerial());
-                statuses.addAll(responsesByLimit300ms(start, url));
+            HubState state = new HubState(hubAddress);
+            if (STATUS_PORT > 0) {
+                new StatusServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), STATUS_PORT), state::getSnapshot);
+            } else {
+                state.setSnapshotsEnabled(false);
             }
-            Map<Long, List<Long>> masterToSlaves = createMasterToSlaveMap(devices);
-            Map<Long, Byte> entities = defineStartEntities(statuses);
-            monitorRequests(url, devices, hubAddress, entities, masterToSlaves);
+            run(new URL(args[0]), state);
         } catch (IOException e) {
             System.exit(99);
         }
     }
 
     /**
-     * Метод, инициализирующий связи мастер-устройств и ведомых
-     * @param devices все устройства в сети в виде Адрес-Устройство
-     * @return {@link Map}<{@link Long}, {@link List}<{@link Long}>>, которая содержит адреса мастеров как ключи и
-     * списки с адресами ведомых как значения.
+     * Запускает хаб: выявляет устройства сети, запрашивает их состояния и переходит к обработке пакетов.
+     * Чтобы наблюдать за работой хаба, подпишитесь на {@link HubState#getEvents()} до вызова метода.
+     * @param url ссылка на сервер умного дома
+     * @param state состояние хаба
+     * @throws IOException при проблемах с чтением потока данных в канале
      */
-    private static Map<Long, List<Long>> createMasterToSlaveMap(Map<Long, Device> devices) {
-        Map<Long, List<Long>> result = new HashMap<>();
-        for (Device device : devices.values()) {
-            if (device.getType() == DeviceType.SWITCH || device.getType() == DeviceType.ENVSENSOR) {
-                List<Long> slaves = result.getOrDefault(device.getAddress(), new ArrayList<>());
-                for (String name : device.getSlaves()) {
-                    for (Device dev : devices.values()) {
-                        if (dev.getName().equals(name)) {
-                            slaves.add(dev.getAddress());
-                        }
+    public static void run(URL url, HubState state) throws IOException {
+        start(url, state);
+        monitorRequests(url, state);
+    }
+
+    /**
+     * Выявляет устройства сети и запрашивает их состояния. После него хаб готов к обработке пакетов
+     * методом {@link #step}. Если {@link HubState#getTransport()} не задан, создается транспорт по свойству
+     * {@code -Dsmarthub.transport}.
+     * @param url ссылка на сервер умного дома
+     * @param state состояние хаба
+     * @throws IOException при проблемах с чтением потока данных в канале
+     */
+    static void start(URL url, HubState state) throws IOException {
+        Discovery discovery = new Discovery();
+        while (!discover(url, state, discovery)) {
+            // Выявление идет до конца в этом потоке
+        }
+    }
+
+    /**
+     * Ход выявления устройств хаба. Выявление выполняется шагами {@link #discover}, каждый не больше
+     * чем с одним запросом к серверу, поэтому в {@link HubRuntime} хаб не занимает общий поток
+     * на все время выявления: между шагами поток обслуживает другие хабы.
+     */
+    static final class Discovery {
+
+        /** Этап выявления */
+        private enum Stage {
+            /** Отправить WHOISHERE */
+            ANNOUNCE,
+            /** Собрать ответы на WHOISHERE в течение 300ms модельного времени */
+            COLLECT_ANNOUNCE_REPLIES,
+            /** Добавить ответившие устройства, на каждый WHOISHERE ответить IAMHERE */
+            REGISTER,
+            /** Запросить состояние очередного устройства */
+            REQUEST_STATUS,
+            /** Собрать ответы на GETSTATUS в течение 300ms модельного времени */
+            COLLECT_STATUSES,
+            /** Запомнить начальные состояния и связи устройств */
+            FINISH,
+            /** Выявление закончено */
+            DONE
+        }
+
+        private Stage stage = Stage.ANNOUNCE;
+
+        /** Ответы на WHOISHERE, ответы на IAMHERE хаба дописываются в конец */
+        private final List<Packet> announced = new ArrayList<>();
+
+        /** Номер очередного пакета {@link #announced} на этапе {@link Stage#REGISTER} */
+        private int registered;
+
+        /** Устройства, состояния которых запрашиваются, и номер очередного */
+        private List<Device> devices;
+        private int deviceIndex;
+
+        /** Пакеты с начальными состояниями устройств */
+        private final List<Packet> statuses = new ArrayList<>();
+
+        /** Время начала и последний тик текущего сбора ответов */
+        private long collectStart;
+        private long collectCurrent;
+
+        /** Время последнего запроса состояния */
+        private long tick;
+
+        boolean isDone() {
+            return stage == Stage.DONE;
+        }
+    }
+
+    /**
+     * Выполняет шаг выявления устройств: не больше одного запроса к серверу. Если сервер сообщил
+     * об окончании работы, выявление заканчивается досрочно, и окончание работы вернет следующий {@link #step}.
+     * @param url ссылка на сервер умного дома, для создания транспорта
+     * @param state состояние хаба
+     * @param discovery ход выявления этого хаба
+     * @return {@code true}, если выявление закончено
+     * @throws IOException при проблемах с чтением потока данных в канале
+     */
+    static boolean discover(URL url, HubState state, Discovery discovery) throws IOException {
+        if (state.getTransport() == null) {
+            state.setTransport(PIPELINED_TRANSPORT ? new PipelinedHttpClient(url, 300) : new HttpTransport(url));
+        }
+        Inbound scratch = IO_BUFFERS.get().polled;
+        while (true) {
+            switch (discovery.stage) {
+                case ANNOUNCE -> {
+                    sendWHOISHERE(new Packet(new Payload(state.getHubAddress(),             // WHOISHERE
+                                    BROADCAST_ADDRESS,
+                                    1,
+                                    (byte) 0x01,
+                                    (byte) 0x01,
+                                    new byte[][]{new PacketString("HUB01").getBytes()})),
+                            state, discovery, scratch);
+                    return false;
+                }
+                case COLLECT_ANNOUNCE_REPLIES -> {
+                    if (discovery.collectCurrent - discovery.collectStart >= 300) {
+                        discovery.stage = Discovery.Stage.REGISTER;
+                        continue;
+                    }
+                    collectResponse(state, discovery, discovery.announced, scratch);
+                    return false;
+                }
+                case REGISTER -> {
+                    if (discovery.registered == discovery.announced.size()) {
+                        //  printSystemStructure(state.getDevices());
+                        discovery.devices = new ArrayList<>(state.getDevices());
+                        discovery.stage = Discovery.Stage.REQUEST_STATUS;
+                        continue;
                     }
+                    if (registerAnnounced(discovery.announced.get(discovery.registered++), state, discovery, scratch)) {
+                        return false;
+                    }
+                }
+                case REQUEST_STATUS -> {
+                    if (discovery.deviceIndex == discovery.devices.size()) {
+                        discovery.stage = Discovery.Stage.FINISH;
+                        continue;
+                    }
+                    Device device = discovery.devices.get(discovery.deviceIndex++);
+                    state.getHub().incrementSerial();
+                    long start = sendGetStatus(device, state, state.getHub().getSerial(), discovery.statuses, scratch);
+                    discovery.collectStart = start;
+                    discovery.collectCurrent = start;
+                    discovery.tick = Math.max(discovery.tick, start);
+                    discovery.stage = scratch.isFinished() ? Discovery.Stage.FINISH : Discovery.Stage.COLLECT_STATUSES;
+                    if (isPollable(device)) {
+                        return false;
+                    }
+                }
+                case COLLECT_STATUSES -> {
+                    if (discovery.collectCurrent - discovery.collectStart >= 300) {
+                        discovery.stage = Discovery.Stage.REQUEST_STATUS;
+                        continue;
+                    }
+                    collectResponse(state, discovery, discovery.statuses, scratch);
+                    return false;
+                }
+                case FINISH -> {
+                    finishDiscovery(state, discovery);
+                    discovery.stage = Discovery.Stage.DONE;
+                    return true;
+                }
+                case DONE -> {
+                    return true;
                 }
-                result.put(device.getAddress(), slaves);
             }
         }
-        return result;
     }
 
     /**
-     * Добавляет новое мастер-устройство в {@link Map} связей.
+     * Запоминает результаты выявления: ставит устройства в фоновый опрос, учитывает полученные состояния
+     * и строит связи мастер-устройств с ведомыми.
+     * @param state состояние хаба
+     * @param discovery ход выявления
+     */
+    private static void finishDiscovery(HubState state, Discovery discovery) {
+        for (Device device : state.getDevices()) {
+            if (isPollable(device)) {
+                state.getPoller().register(device.getAddress(), discovery.tick);
+            }
+        }
+        for (Packet status : discovery.statuses) {
+            state.getTracker().acknowledge(status.getPayload().getSrcAsLong());
+            if (status.getPayload().getCmd() == 4 && status.getPayload().getDevType() == 2) {
+                state.getSensors().record(status.getPayload().getSrcAsLong(), state.getTracker().getCurrentTick(),
+                        status.getPayload().getCmdBody()[0]);
+            }
+        }
+        createMasterToSlaveMap(state);
+        defineStartStatuses(discovery.statuses, state);
+        state.publishSnapshot();
+    }
+
+    /**
+     * Метод, инициализирующий связи мастер-устройств и ведомых в {@link HubState#getMasterToSlaves()}.
+     * @param state состояние хаба
+     */
+    private static void createMasterToSlaveMap(HubState state) {
+        for (Device device : state.getDevices()) {
+            if (device.getType() == DeviceType.SWITCH || device.getType() == DeviceType.ENVSENSOR) {
+                state.getMasterToSlaves().put(device.getAddress(), slaveAddresses(device, state.getDevices()));
+            }
+        }
+    }
+
+    /**
+     * Добавляет новое мастер-устройство в связи мастер-устройств с ведомыми.
+     * @param master мастер-устройство
+     * @param state состояние хаба
+     */
+    private static void addNewMaster(Device master, HubState state) {
+        state.getMasterToSlaves().put(master.getAddress(), slaveAddresses(master, state.getDevices()));
+    }
+
+    /**
+     * Адреса выявленных ведомых устройств мастера.
      * @param master мастер-устройство
      * @param devices все устройства в системе
-     * @param masterToSlaves связи мастер-устройств с ведомыми
+     * @return адреса устройств, имена которых указаны у мастера как ведомые
      */
-    private static void addNewMaster(Device master, Map<Long, Device> devices, Map<Long, List<Long>> masterToSlaves) {
-        List<Long> slavesAddresses = new ArrayList<>();
+    private static long[] slaveAddresses(Device master, Collection<Device> devices) {
+        long[] result = new long[master.getSlaves().size()];
+        int count = 0;
         for (String name : master.getSlaves()) {
-            for (Device device : devices.values()) {
+            for (Device device : devices) {
                 if (device.getName().equals(name)) {
-                    slavesAddresses.add(device.getAddress());
+                    if (count == result.length) {
+                        result = Arrays.copyOf(result, count + 1);
+                    }
+                    result[count++] = device.getAddress();
                 }
             }
         }
-        masterToSlaves.put(master.getAddress(), slavesAddresses);
+        return count == result.length ? result : Arrays.copyOf(result, count);
     }
 
     /**
      * Метод, принимающий пакеты по адресу хаба. Заканчивает выполнение программы с
+     * кодом 0, если сервер сообщил об окончании работы, и с кодом 99 при ошибке.
+     * <p>
+     * В режиме {@link #PREFETCH_POLLING} следующий опрос сервера отправляется до начала обработки
+     * текущей пачки пакетов, поэтому время ожидания ответа перекрывается с разбором пачки. Раунд исходящих
+     * команд отправляется только после ответа на этот опрос: сервер выдает пакеты опросу раньше, чем запросам
+     * раунда, и хаб обрабатывает их в том же порядке - пакеты опроса, затем ответы раунда. Опрос идет в отдельном потоке через собственный {@link HttpTransport}, пачки попеременно принимаются
+     * в два {@link Inbound}; передача опроса потоку создает объекты на каждую пачку.
      * @param url ссылка на сервер умного дома
-     * @param devices все устройства в системе
-     * @param hubAddress адрес хаба
-     * @param entities текущие состояния устройств
-     * @param masterToSlaves связи мастер-устройств с ведомыми
+     * @param state состояние хаба
      * @throws IOException при проблемах с чтением потока данных в канале
      */
-    private static void monitorRequests(URL url, Map<Long, Device> devices, long hubAddress,
-                                        Map<Long, Byte> entities, Map<Long, List<Long>> masterToSlaves) throws IOException {
-        while (true) {
-            HttpURLConnection httpURLConnection = createHttpURLConnection(url);
-            httpURLConnection.setDoOutput(false);
-            httpURLConnection.connect();
-            if (httpURLConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                InputStreamReader isr = new InputStreamReader(httpURLConnection.getInputStream());
-                BufferedReader bfr = new BufferedReader(isr);
-                String line = bfr.readLine();
-                byte[] packets = Base64.getUrlDecoder().decode(line);
-                List<Packet> packetList = parsePackets(packets);
-                for (Packet packet : packetList) {
-                    sendResponse(packet, url, devices, hubAddress, entities, masterToSlaves);
-                }
-                isr.close();
-            } else if (HttpURLConnection.HTTP_NO_CONTENT == httpURLConnection.getResponseCode()) {
-                System.exit(0);
-            } else {
-                System.exit(99);
+    private static void monitorRequests(URL url, HubState state) throws IOException {
+        if (!PREFETCH_POLLING) {
+            while (step(state) >= 0) {
+                // Пачки обрабатываются до окончания работы
+            }
+            System.exit(0);
+        }
+        ExecutorService poller = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "smarthub-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Transport pollTransport = new HttpTransport(url);
+        IoBuffers buffers = IO_BUFFERS.get();
+        Inbound[] inbounds = {new Inbound(), new Inbound()};
+        Inbound responses = new Inbound();      // Ответы раунда, обрабатываются после следующей пачки
+        Inbound current = awaitPoll(poller.submit(() -> poll(pollTransport, inbounds[0])));
+        for (int i = 1; !current.isFinished() && !responses.isFinished(); i++) {
+            Inbound following = inbounds[i % 2];
+            Future<Inbound> next = poller.submit(() -> poll(pollTransport, following));
+            handlePackets(current, state, buffers);
+            handlePackets(responses, state, buffers);       // Сервер выдал их после пакетов current
+            responses.clear();
+            flushSetStatuses(state);
+            current = awaitPoll(next);      // Запросы раунда доходят до сервера только после ответа на опрос
+            sendRound(state, responses);
+            state.publishSnapshot();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Один шаг цикла управления: опрашивает сервер и обрабатывает полученную пачку пакетов.
+     * Не занимает поток между шагами, поэтому шаги разных хабов можно выполнять в общих потоках
+     * (см. {@link HubRuntime}). Шаги одного хаба не должны выполняться одновременно.
+     * @param state состояние хаба, запущенного методом {@link #start}
+     * @return количество обработанных пакетов, -1 - сервер сообщил об окончании работы
+     * @throws IOException при проблемах с чтением потока данных в канале или неожиданном коде ответа
+     */
+    static int step(HubState state) throws IOException {
+        Inbound polled = poll(state.getTransport(), IO_BUFFERS.get().polled);
+        return polled.isFinished() ? -1 : processBatch(polled, state);
+    }
+
+    /**
+     * Обрабатывает пачку пакетов, полученную от сервера: изменяет состояние хаба и отправляет исходящие команды.
+     * Пакеты из ответов на запросы раунда обрабатываются после раунда, команды в ответ на них уходят в следующем.
+     * @param packets пакеты, полученные опросом
+     * @param state состояние хаба
+     * @return количество обработанных пакетов, -1 - сервер сообщил об окончании работы
+     * @throws IOException при проблемах с чтением потока данных в канале или неожиданном коде ответа
+     */
+    private static int processBatch(Inbound packets, HubState state) throws IOException {
+        IoBuffers buffers = IO_BUFFERS.get();
+        Inbound responses = buffers.responses;
+        try {
+            int count = handlePackets(packets, state, buffers);
+            flushSetStatuses(state);
+            sendRound(state, responses);
+            boolean finished = responses.isFinished();
+            count += handlePackets(responses, state, buffers);
+            flushSetStatuses(state);
+            state.publishSnapshot();
+            return finished ? -1 : count;
+        } finally {
+            responses.clear();      // Буфер общий для хабов потока: ответы прерванного раунда не должны достаться другому
+        }
+    }
+
+    /**
+     * Обрабатывает принятые пакеты по порядку. Пакеты с неверной контрольной суммой отбрасываются.
+     * Пачка проверяется {@link PacketScanner}, затем пакеты разбираются на месте.
+     * @param packets принятые пакеты
+     * @param state состояние хаба
+     * @param buffers буферы потока
+     * @return количество обработанных пакетов
+     */
+    private static int handlePackets(Inbound packets, HubState state, IoBuffers buffers) {
+        byte[] bytes = packets.getPackets();
+        PacketScanner scanner = buffers.scanner;
+        int count = scanner.scan(bytes, packets.getLength());
+        PacketView view = buffers.view;
+        int handled = 0;
+        for (int i = 0; i < count; i++) {
+            if (scanner.isValid(i) && view.wrap(bytes, scanner.getOffset(i))) {
+                sendResponse(view, state);
+                handled++;
+            }
+        }
+        return handled;
+    }
+
+    /**
+     * Отправляет на сервер пустой запрос и получает накопившиеся для хаба пакеты.
+     * @param transport способ обмена с сервером
+     * @param inbound приемник пакетов, очищается
+     * @return {@code inbound}
+     * @throws IOException при проблемах с чтением потока данных в канале или неожиданном коде ответа
+     */
+    private static Inbound poll(Transport transport, Inbound inbound) throws IOException {
+        inbound.clear();
+        transport.send(EMPTY_BODY, 0, inbound);
+        transport.flush(inbound);
+        return inbound;
+    }
+
+    /**
+     * Дожидается результата упреждающего опроса.
+     * @param future запрос, отправленный потоком опроса
+     * @return {@link Inbound} результат опроса
+     * @throws IOException если опрос завершился ошибкой или ожидание было прервано
+     */
+    private static Inbound awaitPoll(Future<Inbound> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
             }
-            httpURLConnection.disconnect();
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
         }
     }
 
     /**
-     * Отправляет инструкции от хаба в ответ на принятый пакет данных, изменяет состояние системы.
+     * Ставит в очередь {@link OutboundScheduler} инструкции от хаба в ответ на принятый пакет данных,
+     * изменяет состояние системы.
      * @param packet принятый пакет
-     * @param url ссылка на сервер умного дома
-     * @param devices все устройства в системе
-     * @param hubAddress адрес хаба
-     * @param entities текущие состояния устройств
-     * @param masterToSlaves связи мастер-устройств с ведомыми
-     * @throws IOException при проблемах с чтением потока данных в канале
+     * @param state состояние хаба
      */
-    private static void sendResponse(Packet packet, URL url, Map<Long, Device> devices, long hubAddress,
-                                     Map<Long, Byte> entities, Map<Long, List<Long>> masterToSlaves) throws IOException {
-        Device hub = devices.get(hubAddress);
-        switch (packet.getPayload().getCmd()) {
-            case 1 -> {
-                Device newDevice =  new Device(packet.getPayload().getSrcAsLong(),
-                        DeviceType.values()[packet.getPayload().getDevType()+1],
-                        new String(packet.getPayload().getCmdBody()[0]),
-                        packet.getPayload().getSerial().asLong());
-                devices.put(packet.getPayload().getSrcAsLong(), newDevice);
-                for (int i = 0; i < packet.getPayload().getCmdBody()[1].length; ) {
-                    byte[] arr = Arrays.copyOfRange(packet.getPayload().getCmdBody()[1], i + 1, i + packet.getPayload().getCmdBody()[1][i] + 1);
-                    devices.get(packet.getPayload().getSrcAsLong()).addSlave(new String(arr));
-                    i += packet.getPayload().getCmdBody()[1][i] + 1;
-                }
-                hub.incrementSerial();
-                sendIAMHERE(url, new Packet(new Payload(hubAddress,
-                        BROADCAST_ADDRESS,
-                        hub.getSerial(),
-                        (byte) 1,
-                        (byte) 2,
-                        new byte[][]{})));
-                if (packet.getPayload().getDevType() == 2 || packet.getPayload().getDevType() == 3) {
-                    addNewMaster(newDevice, devices, masterToSlaves);
+    private static void sendResponse(PacketView packet, HubState state) {
+        RequestTracker tracker = state.getTracker();
+        HubEventPublisher events = state.getEvents();
+        switch (packet.getCmd()) {
+            case 1 -> addDiscoveredDevice(packet.toPacket(), state);
+            case 2 -> {
+                Device device = state.getDevice(packet.getSrc());
+                if (device != null) {
+                    setReachable(state, device, true);
+                    if (isPollable(device)) {
+                        state.getPoller().register(device.getAddress(), tracker.getCurrentTick());
+                    }
                 }
-                hub.incrementSerial();
-                sendGetStatus(newDevice, url, hubAddress, hub.getSerial());
             }
             case 4 -> {
-                byte value = packet.getPayload().getCmdBody()[0][0];
-                if (entities.getOrDefault(packet.getPayload().getSrcAsLong(), (byte) -1) != value) {
-                    if (packet.getPayload().getDevType() == 3) {
-                        List<Long> slavesAddresses = masterToSlaves.get(packet.getPayload().getSrcAsLong());
-                        for (Long slaveAddress : slavesAddresses) {
-                            hub.incrementSerial();
-                            sendSetStatus(devices.get(slaveAddress), url, hubAddress, hub.getSerial(), value);
+                long src = packet.getSrc();
+                tracker.acknowledge(src);
+                Device source = state.getDevice(src);
+                if (source != null) {
+                    setReachable(state, source, true);      // Ответ на опрос возвращает устройство в сеть
+                }
+                if (packet.getDevType() == 2) {
+                    state.getSensors().record(src, tracker.getCurrentTick(), packet.getBytes(),
+                            packet.getBodyOffset(), packet.getBodyLength());
+                    state.getPoller().onStatus(src, false, tracker.getCurrentTick());
+                    return;
+                }
+                if (packet.getBodyLength() == 0) {
+                    return;
+                }
+                byte value = packet.getBytes()[packet.getBodyOffset()];
+                if (source != null && source.hasCommandedStatus() && source.getCommandedStatus() == value) {
+                    source.clearCommandedStatus();      // Устройство выполнило последнюю команду
+                }
+                boolean changed = source == null || !source.hasStatus() || source.getStatus() != value;
+                state.getPoller().onStatus(src, changed, tracker.getCurrentTick());
+                if (changed) {
+                    if (packet.getDevType() == 3) {
+                        long[] slavesAddresses = state.getMasterToSlaves().get(src);
+                        for (int i = 0; slavesAddresses != null && i < slavesAddresses.length; i++) {
+                            Device slave = state.getDevice(slavesAddresses[i]);
+                            if (slave != null && slave.isReachable()) {
+                                state.requestSetStatus(slave, value);
+                            }
                         }
-                    } else if (packet.getPayload().getDevType() == 2) {
-                        // TODO()
                     }
-                    entities.put(packet.getPayload().getSrcAsLong(), value);
+                    if (source != null) {
+                        source.setStatus(value);
+                        state.markChanged();
+                    }
+                    if (events.hasSubscribers()) {
+                        events.publish(new HubEvent.StatusChanged(tracker.getCurrentTick(), src,
+                                DeviceType.values()[packet.getDevType() - 1], value));
+                    }
+                }
+            }
+            case 6 -> {
+                flushSetStatuses(state);
+                tracker.advance(Varuint.decode(packet.getBytes(), packet.getBodyOffset()));
+                long tick = tracker.getCurrentTick();
+                for (long address = tracker.pollExpired(); address >= 0; address = tracker.pollExpired()) {
+                    Device device = state.getDevice(address);
+                    if (device != null) {
+                        setReachable(state, device, false);
+                        device.clearCommandedStatus();      // Команда, если была, потеряна
+                    }
+                }
+                for (long address = state.getPoller().nextDue(tick); address >= 0;
+                     address = state.getPoller().nextDue(tick)) {
+                    Device device = state.getDevice(address);
+                    if (device != null) {       // Недоступные тоже опрашиваются: ответ вернет их в сеть
+                        state.getOutbound().submit(OutboundScheduler.Priority.BACKGROUND, (byte) 3, device, (byte) 0);
+                    }
                 }
             }
             default -> {}
@@ -184,75 +569,302 @@ public class SmartHub {
     }
 
     /**
-     * Превращает массив байт в список пакетов.
-     * @param packets массив байтов пакетов
+     * Добавляет устройство, приславшее WHOISHERE после запуска хаба, и ставит в очередь ответ IAMHERE
+     * и запрос его состояния.
+     * @param packet пакет WHOISHERE
+     * @param state состояние хаба
+     */
+    private static void addDiscoveredDevice(Packet packet, HubState state) {
+        Device newDevice =  new Device(packet.getPayload().getSrcAsLong(),
+                DeviceType.values()[packet.getPayload().getDevType()+1],
+                new String(packet.getPayload().getCmdBody()[0]),
+                packet.getPayload().getSerial().asLong());
+        state.addDevice(newDevice);
+        if (packet.getPayload().getDevType() == 2) {
+            state.getSensors().register(newDevice.getAddress(), packet.getPayload().getCmdBody()[1][0]);
+        } else {
+            for (int i = 0; i < packet.getPayload().getCmdBody()[1].length; ) {
+                byte[] arr = Arrays.copyOfRange(packet.getPayload().getCmdBody()[1], i + 1, i + packet.getPayload().getCmdBody()[1][i] + 1);
+                newDevice.addSlave(new String(arr));
+                i += packet.getPayload().getCmdBody()[1][i] + 1;
+            }
+        }
+        publishDeviceDiscovered(state, newDevice);
+        state.getOutbound().submit(OutboundScheduler.Priority.DISCOVERY, (byte) 2, null, (byte) 0);
+        if (packet.getPayload().getDevType() == 2 || packet.getPayload().getDevType() == 3) {
+            addNewMaster(newDevice, state);
+        }
+        state.getOutbound().submit(OutboundScheduler.Priority.BACKGROUND, (byte) 3, newDevice, (byte) 0);
+        if (isPollable(newDevice)) {
+            state.getPoller().register(newDevice.getAddress(), state.getTracker().getCurrentTick());
+        }
+    }
+
+    /**
+     * Изменяет доступность устройства и отмечает изменение состояния для снимка.
+     * @param state состояние хаба
+     * @param device устройство
+     * @param reachable отвечает ли устройство на запросы хаба
+     */
+    private static void setReachable(HubState state, Device device, boolean reachable) {
+        if (device.isReachable() != reachable) {
+            device.setReachable(reachable);
+            state.markChanged();
+        }
+    }
+
+    /**
+     * Передает накопленные за тик SETSTATUS ведомым устройствам в очередь отправки с наивысшим приоритетом.
+     * Каждое устройство получает не более одной команды с последним установленным значением, повторные
+     * переключения в пределах тика схлопываются. Команда не отправляется, если требуемое значение совпадает
+     * с последней командой устройству, еще не подтвержденной его STATUS (в очереди или уже отправленной), а если
+     * такой нет - с последним известным состоянием устройства. Иначе поставленная раньше и еще не отправленная
+     * команда осталась бы последней. Накопленные команды ({@link HubState#requestSetStatus}) очищаются.
+     * @param state состояние хаба
+     */
+    private static void flushSetStatuses(HubState state) {
+        List<Device> pendingSetStatus = state.getPendingSetStatus();
+        for (int i = 0; i < pendingSetStatus.size(); i++) {     // По индексу: без итератора
+            Device device = pendingSetStatus.get(i);
+            byte value = device.getPendingStatus();
+            boolean reached = device.hasCommandedStatus() ? device.getCommandedStatus() == value
+                    : device.hasStatus() && device.getStatus() == value;
+            if (!reached) {
+                state.getOutbound().submit(OutboundScheduler.Priority.ACTUATION, (byte) 5, device, value);
+                device.setCommandedStatus(value);
+            }
+            device.clearPendingStatus();
+        }
+        pendingSetStatus.clear();
+    }
+
+    /**
+     * Проводит раунд отправки {@link OutboundScheduler}. SETSTATUS и IAMHERE отправляются отдельными запросами,
+     * идущие подряд GETSTATUS объединяются в один запрос с несколькими пакетами. Перед любой другой командой
+     * накопленные GETSTATUS отправляются, поэтому номера пакетов хаба уходят на сервер по возрастанию.
+     * Запросы раунда отправляются через {@link HubState#getTransport()}, в конце раунда транспорт дожидается ответов.
+     * @param state состояние хаба
+     * @param responses приемник пакетов из ответов, код 204 отмечается в нем же
+     * @throws IOException при проблемах с чтением потока данных в канале
+     */
+    private static void sendRound(HubState state, Inbound responses) throws IOException {
+        if (state.getOutbound().isEmpty()) {
+            return;
+        }
+        IoBuffers buffers = IO_BUFFERS.get();
+        buffers.batchLength = 0;
+        RoundSender sender = buffers.sender;
+        sender.state = state;
+        sender.responses = responses;
+        try {
+            state.getOutbound().drain(sender);
+            sendPollBatch(state, buffers, responses);
+            state.getTransport().flush(responses);
+        } finally {
+            sender.state = null;
+            sender.responses = null;
+        }
+    }
+
+    /**
+     * Отправка команд раунда. Один экземпляр на поток (см. {@link IoBuffers#sender}), поэтому
+     * раунд не создает объекта-обработчика.
+     */
+    private static class RoundSender implements OutboundScheduler.Sender {
+
+        private final IoBuffers buffers;
+
+        /** Состояние хаба текущего раунда */
+        private HubState state;
+
+        /** Приемник ответов текущего раунда */
+        private Inbound responses;
+
+        RoundSender(IoBuffers buffers) {
+            this.buffers = buffers;
+        }
+
+        @Override
+        public void send(OutboundScheduler.Command command) throws IOException {
+            if (command.cmd() == 3) {
+                addToPollBatch(command.target(), state, buffers, responses);
+                return;
+            }
+            sendPollBatch(state, buffers, responses);
+            sendOutbound(command, state, responses);
+        }
+    }
+
+    /**
+     * Отправляет команду из очереди {@link OutboundScheduler}, назначая ей очередной номер пакета хаба.
+     * @param command команда
+     * @param state состояние хаба
+     * @param responses приемник пакетов из ответа
+     * @throws IOException при проблемах с чтением потока данных в канале
+     */
+    private static void sendOutbound(OutboundScheduler.Command command, HubState state, Inbound responses)
+            throws IOException {
+        Device hub = state.getHub();
+        hub.incrementSerial();
+        switch (command.cmd()) {
+            case 2 -> sendIAMHERE(state, responses);
+            case 5 -> sendSetStatus(command.target(), state, hub.getSerial(), command.value(), responses);
+            default -> throw new IllegalArgumentException("Unsupported outbound command: " + command.cmd());
+        }
+    }
+
+    /**
+     * Опрашивается ли устройство командой GETSTATUS: хаб и часы не опрашиваются.
+     * @param device устройство
+     * @return {@code true}, если устройство нужно опрашивать
+     */
+    private static boolean isPollable(Device device) {
+        return device.getType() != DeviceType.SMARTHUB && device.getType() != DeviceType.CLOCK;
+    }
+
+    /**
+     * Добавляет GETSTATUS в общий запрос раунда, назначая ему очередной номер пакета хаба.
+     * Если запрос заполнен, он отправляется и начинается новый. Хаб и часы не опрашиваются,
+     * и номер пакета для них не расходуется.
+     * @param device устройство-получатель
+     * @param state состояние хаба
+     * @param buffers буферы потока
+     * @param responses приемник пакетов из ответа
+     * @throws IOException при проблемах с чтением потока данных в канале
+     */
+    private static void addToPollBatch(Device device, HubState state, IoBuffers buffers, Inbound responses)
+            throws IOException {
+        if (!isPollable(device)) {
+            return;
+        }
+        Device hub = state.getHub();
+        hub.incrementSerial();
+        if (buffers.batchLength + MAX_GETSTATUS_LENGTH > buffers.batch.length) {
+            sendPollBatch(state, buffers, responses);
+        }
+        buffers.batchLength += Packet.writeTo(buffers.batch, buffers.batchLength, hub.getAddress(),
+                device.getAddress(), hub.getSerial(), (byte) (device.getType().ordinal() + 1), (byte) 3, buffers.body, 0);
+        state.getTracker().expectReply(device.getAddress(), state.getTracker().getCurrentTick());
+        publishCommandSent(state, device.getAddress(), hub.getSerial(), (byte) 3, (byte) 0);
+    }
+
+    /**
+     * Отправляет накопленные GETSTATUS одним запросом. Пакеты из ответа обрабатываются после раунда.
+     * @param state состояние хаба
+     * @param buffers буферы потока
+     * @param responses приемник пакетов из ответа
+     * @throws IOException при проблемах с чтением потока данных в канале
+     */
+    private static void sendPollBatch(HubState state, IoBuffers buffers, Inbound responses) throws IOException {
+        if (buffers.batchLength == 0) {
+            return;
+        }
+        int length = Base64Url.encode(buffers.batch, buffers.batchLength, buffers.batchEncoded);
+        buffers.batchLength = 0;
+        state.getTransport().send(buffers.batchEncoded, length, responses);
+    }
+
+    /**
+     * Кодирует пакет из {@link IoBuffers#packet} в base64 и отправляет его отдельным запросом.
+     * @param state состояние хаба
+     * @param buffers буферы потока
+     * @param length длина пакета
+     * @param responses приемник пакетов из ответа
+     * @throws IOException при проблемах с чтением потока данных в канале
+     */
+    private static void sendPacket(HubState state, IoBuffers buffers, int length, Inbound responses) throws IOException {
+        state.getTransport().send(buffers.encoded, Base64Url.encode(buffers.packet, length, buffers.encoded), responses);
+    }
+
+    /**
+     * Превращает принятые пакеты в список объектов {@link Packet}. Пакеты с неверной контрольной суммой
+     * отбрасываются. Используется при выявлении устройств, в установившемся режиме пакеты разбираются
+     * на месте (см. {@link #handlePackets}).
+     * @param packets принятые пакеты
      * @return {@link List}<{@link Packet}> список пакетов
      */
-    private static List<Packet> parsePackets(byte[] packets) {
+    private static List<Packet> parsePackets(Inbound packets) {
+        byte[] bytes = packets.getPackets();
         List<Packet> result = new ArrayList<>();
-        for (int i = 0; i < packets.length; ) {
-            if (packets[i] == packets.length + 2) {
-                result.add(new Packet(packets));
-                break;
-            } else {
-                result.add(new Packet(Arrays.copyOfRange(packets, i, i + packets[i] + 2)));
-                i += packets[i] + 2;
+        for (int i = 0; i < packets.getLength(); i += (bytes[i] & 0xFF) + 2) {
+            int length = (bytes[i] & 0xFF) + 2;
+            if (i + length > packets.getLength()) {
+                break;      // Обрезанный последний пакет
+            }
+            if (Packet.hasValidCrc(bytes, i)) {
+                result.add(new Packet(Arrays.copyOfRange(bytes, i, i + length)));
             }
         }
         return result;
     }
 
     /**
-     * Инициализирует {@link  Map} с начальными состояниями устройств.
+     * Отправляет запрос при выявлении устройств и дожидается ответа.
+     * @param state состояние хаба
+     * @param body тело запроса, пустое - опрос сервера
+     * @param length длина тела
+     * @param responses приемник пакетов из ответа, очищается
+     * @throws IOException при проблемах с чтением потока данных в канале
+     */
+    private static void exchange(HubState state, byte[] body, int length, Inbound responses) throws IOException {
+        responses.clear();
+        state.getTransport().send(body, length, responses);
+        state.getTransport().flush(responses);
+    }
+
+    /**
+     * Запоминает начальные состояния устройств.
      * @param statuses пакеты с начальными состояниями устройств
-     * @return {@code Map<Long, Byte>} Адрес-Состояние
+     * @param state состояние хаба
      */
-    private static Map<Long, Byte> defineStartEntities(List<Packet> statuses) {
-        Map<Long, Byte> result = new HashMap<>();
+    private static void defineStartStatuses(List<Packet> statuses, HubState state) {
         for (Packet status : statuses) {
-            if (status.getPayload().getCmd() == 4) {
-                byte value = status.getPayload().getCmdBody()[0][0];
-                result.put(status.getPayload().getSrcAsLong(), value);
+            if (status.getPayload().getCmd() == 4 && status.getPayload().getDevType() != 2) {    // ENVSENSOR - в SensorStore
+                Device device = state.getDevice(status.getPayload().getSrcAsLong());
+                if (device != null) {
+                    device.setStatus(status.getPayload().getCmdBody()[0][0]);
+                    state.markChanged();
+                }
             }
         }
-        return result;
     }
 
     /**
      * Отправляет GETSTATUS от хаба на указанное устройство.
      * @param device устройство-получатель
-     * @param url ссылка на сервер умного дома
-     * @param hubAddress адрес хаба
+     * @param state состояние хаба
      * @param hubSerial номер пакета от хаба
+     * @param responses список, в который добавляются пакеты из ответа, кроме тиков
+     * @param scratch приемник ответа
      * @return {@code long} - время отправки запроса в формате {@code timestamp}
      * @throws IOException при проблемах с чтением потока данных в канале
      */
-    private static long sendGetStatus(Device device, URL url, long hubAddress, long hubSerial) throws IOException {
+    private static long sendGetStatus(Device device, HubState state, long hubSerial,
+                                      List<Packet> responses, Inbound scratch) throws IOException {
         long start = 0;
         switch (device.getType()) {
             case SMARTHUB, CLOCK -> {
             }
             default -> {
-                HttpURLConnection httpURLConnection = createHttpURLConnection(url);
-                httpURLConnection.connect();
-                Packet packet = new Packet(new Payload(hubAddress,
+                IoBuffers buffers = IO_BUFFERS.get();
+                int length = Packet.writeTo(buffers.packet, 0, state.getHubAddress(),
                         device.getAddress(),
                         hubSerial,
                         (byte) (device.getType().ordinal() + 1),
-                        (byte) 3, new byte[][]{}));
-                OutputStream os = httpURLConnection.getOutputStream();
-                byte[] encodedPacket = Base64.getUrlEncoder().withoutPadding().encode(packet.asBytes());
-                os.write(encodedPacket);
-                if (httpURLConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                    InputStreamReader isr = new InputStreamReader(httpURLConnection.getInputStream());
-                    BufferedReader bfr = new BufferedReader(isr);
-                    String line = bfr.readLine();
-                    byte[] packets = Base64.getUrlDecoder().decode(line);
-                    // Т.к. пакет с тиком всегда первый (по усл.) можем сделать так:
-                    Packet clockPacket = new Packet(Arrays.copyOfRange(packets, 0, packets[0] + 2));
-                    start = new Varuint(clockPacket.getPayload().getCmdBody()[0]).asLong();
+                        (byte) 3, buffers.body, 0);
+                exchange(state, buffers.encoded, Base64Url.encode(buffers.packet, length, buffers.encoded), scratch);
+                for (Packet pack : parsePackets(scratch)) {
+                    if (pack.getPayload().getCmd() == 6) {
+                        if (start == 0) {       // Пакет с тиком идет первым (по усл.)
+                            start = Varuint.decode(pack.getPayload().getCmdBody()[0], 0);
+                        }
+                    } else {
+                        responses.add(pack);
+                    }
                 }
-                httpURLConnection.disconnect();
+                RequestTracker tracker = state.getTracker();
+                tracker.expectReply(device.getAddress(), start != 0 ? start : tracker.getCurrentTick());
+                publishCommandSent(state, device.getAddress(), hubSerial, (byte) 3, (byte) 0);
             }
         }
         return start;
@@ -261,165 +873,175 @@ public class SmartHub {
     /**
      * Отправляет SETSTATUS от хаба на указанное устройство.
      * @param device устройство-получатель
-     * @param url ссылка на сервер умного дома
-     * @param hubAddress адрес хаба
+     * @param state состояние хаба
      * @param hubSerial номер пакета от хаба
      * @param value устанавливаемое значение
+     * @param responses приемник пакетов из ответа
      * @throws IOException при проблемах с чтением потока данных в канале
      */
-    private static void sendSetStatus(Device device, URL url, long hubAddress, long hubSerial, byte value) throws IOException {
-        HttpURLConnection httpURLConnection = createHttpURLConnection(url);
-        httpURLConnection.connect();
-        Packet packet = new Packet(new Payload(hubAddress,
+    private static void sendSetStatus(Device device, HubState state, long hubSerial, byte value,
+                                      Inbound responses) throws IOException {
+        IoBuffers buffers = IO_BUFFERS.get();
+        buffers.body[0] = value;
+        int length = Packet.writeTo(buffers.packet, 0, state.getHubAddress(),
                 device.getAddress(),
                 hubSerial,
                 (byte) (device.getType().ordinal() + 1),
-                (byte) 5, new byte[][]{new byte[] {value}}));
-        OutputStream os = httpURLConnection.getOutputStream();
-        byte[] encodedPacket = Base64.getUrlEncoder().withoutPadding().encode(packet.asBytes());
-        os.write(encodedPacket);
-        os.close();
-        if (httpURLConnection.getResponseCode() == HttpURLConnection.HTTP_OK)
-            httpURLConnection.disconnect();
+                (byte) 5, buffers.body, 1);
+        sendPacket(state, buffers, length, responses);
+        state.getTracker().expectReply(device.getAddress(), state.getTracker().getCurrentTick());
+        publishCommandSent(state, device.getAddress(), hubSerial, (byte) 5, value);
     }
 
     /**
-     * Собирает все пакеты, отправляемые на хаб в течение 300ms модельного времени.
-     * @param start время начала
-     * @param url ссылка на сервер умного дома
-     * @return {@code List<Packet>} - Список пакетов, полученные в течение 300ms модельного времени
+     * Публикует событие об отправленной команде, если есть подписчики.
+     * @param state состояние хаба
+     * @param dst адрес получателя
+     * @param serial номер пакета хаба
+     * @param cmd команда протокола
+     * @param value устанавливаемое значение (для SETSTATUS)
+     */
+    private static void publishCommandSent(HubState state, long dst, long serial, byte cmd, byte value) {
+        if (state.getEvents().hasSubscribers()) {
+            state.getEvents().publish(new HubEvent.CommandSent(state.getTracker().getCurrentTick(), dst, serial, cmd, value));
+        }
+    }
+
+    /**
+     * Опрашивает сервер при сборе ответов в течение 300ms модельного времени (см. {@link Discovery}).
+     * Тики продвигают время сбора, остальные пакеты добавляются в {@code responses}. Если сервер сообщил
+     * об окончании работы, выявление переходит к завершению.
+     * @param state состояние хаба
+     * @param discovery ход выявления
+     * @param responses список собранных пакетов
+     * @param scratch приемник ответа
      * @throws IOException при проблемах с чтением потока данных в канале
      */
-    private static List<Packet> responsesByLimit300ms(long start, URL url) throws IOException {
-        long current = start;
-        List<Packet> responses = new ArrayList<>();
-        while (current - start < 300) {
-            HttpURLConnection httpURLConnection = createHttpURLConnection(url);
-            httpURLConnection.connect();
-            if (httpURLConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                InputStreamReader isr = new InputStreamReader(httpURLConnection.getInputStream());
-                BufferedReader bfr = new BufferedReader(isr);
-                String line;
-                while ((line = bfr.readLine()) != null) {
-                    byte[] packets = Base64.getUrlDecoder().decode(line);
-                    List<Packet> packetList = parsePackets(packets);
-                    for (Packet pack : packetList) {
-                        if (!(pack.getPayload().getDevType() == DeviceType.CLOCK.ordinal() + 1)) {   // Ticks ignored.
-                            responses.add(pack);
-                        } else {
-                            current = new Varuint(pack.getPayload().getCmdBody()[0]).asLong();
-                        }
-                    }
-                }
-                isr.close();
+    private static void collectResponse(HubState state, Discovery discovery, List<Packet> responses,
+                                        Inbound scratch) throws IOException {
+        exchange(state, EMPTY_BODY, 0, scratch);
+        if (scratch.isFinished()) {
+            discovery.stage = Discovery.Stage.FINISH;
+            return;
+        }
+        for (Packet pack : parsePackets(scratch)) {
+            if (!(pack.getPayload().getDevType() == DeviceType.CLOCK.ordinal() + 1)) {   // Ticks ignored.
+                responses.add(pack);
+            } else {
+                discovery.collectCurrent = Varuint.decode(pack.getPayload().getCmdBody()[0], 0);
             }
         }
-        return responses;
     }
 
     /**
-     * Создает объект HTTP-подключения к серверу умного дома
-     * @param url {@link  URL} ссылка на сервер умного дома
-     * @return {@link  HttpURLConnection} объект HTTP-подключения к серверу умного дома
-     * @throws IOException при проблемах с подключением к серверу или отправкой на него POST-запроса
+     * Отправляет сообщение IAMHERE от хаба с текущим номером пакета хаба.
+     * @param state состояние хаба
+     * @param responses приемник пакетов из ответа
+     * @throws IOException при проблемах с записью или чтением потока данных в канале
      */
-    private static HttpURLConnection createHttpURLConnection(URL url) throws IOException {
-        HttpURLConnection httpURLConnection = (HttpURLConnection) url.openConnection();
-        httpURLConnection.setRequestMethod("POST");
-        httpURLConnection.setDoInput(true);
-        httpURLConnection.setDoOutput(true);
-        httpURLConnection.setConnectTimeout(300);
-        httpURLConnection.setReadTimeout(300);
-        httpURLConnection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-        httpURLConnection.setRequestProperty("Accept", "application/x-www-form-urlencoded");
-        return httpURLConnection;
+    private static void sendIAMHERE(HubState state, Inbound responses) throws IOException {
+        Device hub = state.getHub();
+        IoBuffers buffers = IO_BUFFERS.get();
+        int length = Packet.writeTo(buffers.packet, 0, hub.getAddress(),
+                BROADCAST_ADDRESS,
+                hub.getSerial(),
+                (byte) (hub.getType().ordinal() + 1),
+                (byte) 2, buffers.body, 0);    // IAMHERE
+        sendPacket(state, buffers, length, responses);
+        publishCommandSent(state, BROADCAST_ADDRESS, hub.getSerial(), (byte) 2, (byte) 0);
     }
 
     /**
-     * Отправляет сообщение IAMHERE от хаба.
-     * @param url ссылка на сервер умного дома
+     * Отправляет сообщение WHOISHERE от хаба и начинает сбор ответов на него.
      * @param packet пакет сообщения
-     * @throws IOException при проблемах с записью потока данных в канале
+     * @param state состояние хаба
+     * @param discovery ход выявления
+     * @param scratch приемник ответов
+     * @throws IOException при проблемах с записью или чтением потока данных в канале
      */
-    private static void sendIAMHERE(URL url, Packet packet) throws IOException {
-        HttpURLConnection httpURLConnection = createHttpURLConnection(url);
-        httpURLConnection.setDoInput(false);
-        httpURLConnection.connect();
-        OutputStream os = httpURLConnection.getOutputStream();
-        byte[] encodedPacket = Base64.getUrlEncoder().withoutPadding().encode(packet.asBytes());
-        os.write(encodedPacket);
-        os.close();
-        httpURLConnection.disconnect();
+    private static void sendWHOISHERE(Packet packet, HubState state, Discovery discovery,
+                                      Inbound scratch) throws IOException {
+        IoBuffers buffers = IO_BUFFERS.get();
+        byte[] bytes = packet.asBytes();
+        exchange(state, buffers.encoded, Base64Url.encode(bytes, bytes.length, buffers.encoded), scratch);
+        List<Packet> packetList = parsePackets(scratch);
+        if (packetList.isEmpty()) {
+            discovery.stage = Discovery.Stage.REGISTER;
+            return;
+        }
+        discovery.announced.addAll(packetList);
+        discovery.collectStart = Varuint.decode(packetList.get(0).getPayload().getCmdBody()[0], 0);
+        discovery.collectCurrent = discovery.collectStart;
+        discovery.stage = Discovery.Stage.COLLECT_ANNOUNCE_REPLIES;
     }
 
     /**
-     * Отправляет сообщение WHOISHERE от хаба.
-     * @param url ссылка на сервер умного дома
-     * @param packet пакет сообщения
-     * @param devices список всех устройств в сети
+     * Добавляет устройство из ответа на WHOISHERE. Устройству, приславшему WHOISHERE, хаб отвечает IAMHERE,
+     * пакеты из ответа сервера дописываются в {@link Discovery#announced}.
+     * @param pack пакет из ответа
+     * @param state состояние хаба
+     * @param discovery ход выявления
+     * @param scratch приемник ответа
+     * @return {@code true}, если был отправлен IAMHERE
      * @throws IOException при проблемах с записью или чтением потока данных в канале
      */
-    private static void sendWHOISHERE(URL url, Packet
-            packet, Map<Long, Device> devices) throws IOException {
-        HttpURLConnection httpURLConnection = createHttpURLConnection(url);
-        httpURLConnection.connect();
-        OutputStream os = httpURLConnection.getOutputStream();
-        byte[] encodedPacket = Base64.getUrlEncoder().withoutPadding().encode(packet.asBytes());
-        os.write(encodedPacket);
-        os.close();
-        if (httpURLConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-            InputStreamReader isr = new InputStreamReader(httpURLConnection.getInputStream());
-            BufferedReader bfr = new BufferedReader(isr);
-            String line = bfr.readLine();
-            byte[] packets = Base64.getUrlDecoder().decode(line);
-            isr.close();
-            List<Packet> packetList = parsePackets(packets);
-            packetList.addAll(responsesByLimit300ms(new Varuint(packetList.get(0).getPayload().getCmdBody()[0]).asLong(), url));
-            for (Packet pack : packetList) {
-                if (pack.getPayload().getCmd() == 2) {      // Проверка на то, что устройство отправило IAMHERE
-                    Device device = new Device(pack.getPayload().getSrcAsLong(),
-                            DeviceType.values()[pack.getPayload().getDevType() - 1],
-                            new String(Arrays.copyOfRange(pack.getPayload().getCmdBody()[0],
-                                    1, pack.getPayload().getCmdBody()[0].length)),
-                            pack.getPayload().getSerial().asLong());
-                    devices.put(device.getAddress(), device);
-                } else if (pack.getPayload().getCmd() == 1) {   // Если получили WHOISHERE - отвечаем и добавляем в структуру
-                    Device device = new Device(pack.getPayload().getSrcAsLong(),
-                            DeviceType.values()[pack.getPayload().getDevType() - 1],
-                            new String(Arrays.copyOfRange(pack.getPayload().getCmdBody()[0],
-                                    1, pack.getPayload().getCmdBody()[0].length)),
-                            pack.getPayload().getSerial().asLong());
-                    devices.put(device.getAddress(), device);
-                    Device hub = devices.get(packet.getPayload().getSrcAsLong());
-                    hub.incrementSerial();
-                    sendIAMHERE(url, new Packet(new Payload(hub.getAddress(),       // packet - hub's whoishere request
-                            BROADCAST_ADDRESS,
-                            hub.getSerial(),
-                            (byte) (hub.getType().ordinal() + 1),
-                            (byte) 2,  // IAMHERE
-                            new byte[][]{})));
-                }
-                if (pack.getPayload().getDevType() == 2 || pack.getPayload().getDevType() == 3) {
-                    for (int i = 0; i < pack.getPayload().getCmdBody()[1].length; ) {
-                        byte[] arr = Arrays.copyOfRange(pack.getPayload().getCmdBody()[1], i + 1, i + pack.getPayload().getCmdBody()[1][i] + 1);
-                        devices.get(pack.getPayload().getSrcAsLong()).addSlave(new String(arr));
-                        i += pack.getPayload().getCmdBody()[1][i] + 1;
-                    }
-                }
+    private static boolean registerAnnounced(Packet pack, HubState state, Discovery discovery,
+                                             Inbound scratch) throws IOException {
+        boolean replied = false;
+        if (pack.getPayload().getCmd() == 2) {      // Проверка на то, что устройство отправило IAMHERE
+            Device device = new Device(pack.getPayload().getSrcAsLong(),
+                    DeviceType.values()[pack.getPayload().getDevType() - 1],
+                    new String(Arrays.copyOfRange(pack.getPayload().getCmdBody()[0],
+                            1, pack.getPayload().getCmdBody()[0].length)),
+                    pack.getPayload().getSerial().asLong());
+            state.addDevice(device);
+            publishDeviceDiscovered(state, device);
+        } else if (pack.getPayload().getCmd() == 1) {   // Если получили WHOISHERE - отвечаем и добавляем в структуру
+            Device device = new Device(pack.getPayload().getSrcAsLong(),
+                    DeviceType.values()[pack.getPayload().getDevType() - 1],
+                    new String(Arrays.copyOfRange(pack.getPayload().getCmdBody()[0],
+                            1, pack.getPayload().getCmdBody()[0].length)),
+                    pack.getPayload().getSerial().asLong());
+            state.addDevice(device);
+            publishDeviceDiscovered(state, device);
+            state.getHub().incrementSerial();
+            scratch.clear();
+            sendIAMHERE(state, scratch);
+            state.getTransport().flush(scratch);
+            discovery.announced.addAll(parsePackets(scratch));
+            replied = true;
+        }
+        if (pack.getPayload().getDevType() == 2 && pack.getPayload().getCmd() <= 2) {
+            state.getSensors().register(pack.getPayload().getSrcAsLong(), pack.getPayload().getCmdBody()[1][0]);
+        } else if (pack.getPayload().getDevType() == 3) {
+            for (int i = 0; i < pack.getPayload().getCmdBody()[1].length; ) {
+                byte[] arr = Arrays.copyOfRange(pack.getPayload().getCmdBody()[1], i + 1, i + pack.getPayload().getCmdBody()[1][i] + 1);
+                state.getDevice(pack.getPayload().getSrcAsLong()).addSlave(new String(arr));
+                i += pack.getPayload().getCmdBody()[1][i] + 1;
             }
-            //  printSystemStructure(devices);
         }
-        httpURLConnection.disconnect();
+        return replied;
+    }
+
+    /**
+     * Публикует событие об обнаруженном устройстве, если есть подписчики.
+     * @param state состояние хаба
+     * @param device обнаруженное устройство
+     */
+    private static void publishDeviceDiscovered(HubState state, Device device) {
+        if (state.getEvents().hasSubscribers()) {
+            state.getEvents().publish(new HubEvent.DeviceDiscovered(state.getTracker().getCurrentTick(),
+                    device.getAddress(), device.getType(), device.getName()));
+        }
     }
 
     /**
      * Выводит выявленную структуру системы (для отладки).
      * @param devices выявленные запросом WHOISHERE устройства
      */
-    private static void printSystemStructure(Map<Long, Device> devices) {
-        for (Map.Entry<Long, Device> device : devices.entrySet()) {
-            System.out.println(device.getValue());
+    private static void printSystemStructure(Collection<Device> devices) {
+        for (Device device : devices) {
+            System.out.println(device);
         }
     }
 }
-
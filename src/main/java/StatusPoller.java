@@ -0,0 +1,94 @@
+/**
+ * Планировщик фонового опроса устройств командой GETSTATUS во времени модели ({@link DeviceType#CLOCK}).
+ * Интервал опроса каждого устройства адаптивный: после изменения состояния или повторного появления в сети
+ * он сбрасывается до {@link #MIN_INTERVAL}, после каждого ответа без изменений удваивается до {@link #MAX_INTERVAL}.
+ * Общая частота опроса ограничена «ведром токенов»: {@link #POLLS_PER_KILOTICK} опросов на 1000 тиков,
+ * не больше {@link #BURST} подряд. Расписание устройства переносится на месте, поэтому в установившемся режиме
+ * опрос не создает объектов.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class StatusPoller {
+
+    /** Минимальный интервал опроса в тиках: {@value}. */
+    public static final long MIN_INTERVAL = 1_000;
+
+    /** Максимальный интервал опроса в тиках: {@value}. */
+    public static final long MAX_INTERVAL = 60_000;
+
+    /** Допустимое число опросов на 1000 тиков: {@value}. */
+    public static final int POLLS_PER_KILOTICK = 20;
+
+    /** Максимальное число опросов подряд: {@value}. */
+    public static final int BURST = 16;
+
+    /** Расписание опроса устройства, срок в очереди - время следующего опроса */
+    private static final class Entry extends DeadlineQueue.Node {
+        private final long address;
+        private long interval = MIN_INTERVAL;
+
+        Entry(long address) {
+            this.address = address;
+        }
+    }
+
+    private final LongMap<Entry> entries = new LongMap<>();
+    private final DeadlineQueue<Entry> queue = new DeadlineQueue<>();
+
+    /** Доступные опросы */
+    private double tokens = BURST;
+
+    /** Время последнего пополнения {@link #tokens}, -1 - еще не было */
+    private long lastTick = -1;
+
+    /**
+     * Добавляет устройство в опрос или сбрасывает его интервал до минимального, например
+     * когда устройство снова появилось в сети.
+     * @param address адрес устройства
+     * @param tick текущее время модели
+     */
+    public void register(long address, long tick) {
+        Entry entry = entries.get(address);
+        if (entry == null) {
+            entry = new Entry(address);
+            entries.put(address, entry);
+        }
+        entry.interval = MIN_INTERVAL;
+        queue.schedule(entry, tick + entry.interval);
+    }
+
+    /**
+     * Учитывает STATUS от устройства: свежее состояние откладывает очередной опрос на интервал.
+     * @param address адрес устройства
+     * @param changed изменилось ли состояние устройства
+     * @param tick текущее время модели
+     */
+    public void onStatus(long address, boolean changed, long tick) {
+        Entry entry = entries.get(address);
+        if (entry == null) {
+            return;
+        }
+        entry.interval = changed ? MIN_INTERVAL : Math.min(entry.interval * 2, MAX_INTERVAL);
+        queue.schedule(entry, tick + entry.interval);
+    }
+
+    /**
+     * Выбирает очередное устройство, которое пора опросить, в пределах доступной полосы. Выбранное устройство
+     * перепланируется на следующий интервал. Вызывается повторно, пока не вернет -1.
+     * @param tick текущее время модели
+     * @return адрес устройства для опроса или -1, если опрашивать некого или полоса исчерпана
+     */
+    public long nextDue(long tick) {
+        if (lastTick >= 0 && tick > lastTick) {
+            tokens = Math.min(BURST, tokens + (tick - lastTick) * POLLS_PER_KILOTICK / 1000.0);
+        }
+        lastTick = Math.max(lastTick, tick);
+        Entry first = queue.peek();
+        if (first == null || first.getDeadline() > tick || tokens < 1) {
+            return -1;
+        }
+        tokens--;
+        queue.schedule(first, tick + first.interval);
+        return first.address;
+    }
+}
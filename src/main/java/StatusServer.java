@@ -0,0 +1,64 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Встроенный HTTP-сервер, отдающий последний снимок состояния хаба ({@link HubSnapshot}): <p>
+ * {@code GET /status} - в формате JSON <p>
+ * {@code GET /status.bin} - в двоичном формате (см. {@link HubSnapshot#asBytes()}). <p>
+ * Запросы обслуживаются в собственном потоке и только читают опубликованный снимок,
+ * поэтому не блокируют и не замедляют цикл управления.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public class StatusServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Создает и запускает сервер.
+     * @param address адрес, на котором принимаются запросы
+     * @param snapshots источник последнего снимка, например {@code state::getSnapshot}
+     * @throws IOException если не удалось открыть порт
+     */
+    public StatusServer(InetSocketAddress address, Supplier<HubSnapshot> snapshots) throws IOException {
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "smarthub-status");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext("/status", exchange ->
+                respond(exchange, "application/json", snapshots.get().asJson().getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/status.bin", exchange ->
+                respond(exchange, "application/octet-stream", snapshots.get().asBytes()));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+}
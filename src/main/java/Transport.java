@@ -0,0 +1,30 @@
+import java.io.IOException;
+
+/**
+ * Способ обмена с сервером умного дома: POST-запросы с пакетами в base64, ответы с накопившимися для хаба пакетами.
+ * Запросы отправляются по порядку, ответы дописываются в {@link Inbound} в том же порядке.
+ * Реализация может отправлять запросы сразу или копить их до {@link #flush}.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+public interface Transport extends AutoCloseable {
+
+    /**
+     * Отправляет запрос. Массив {@code body} можно переиспользовать сразу после возврата.
+     * @param body тело запроса (пакеты в base64), пустое тело - опрос сервера
+     * @param length длина тела
+     * @param responses приемник ответа; ответ дописывается не позже {@link #flush}
+     * @throws IOException при проблемах с соединением или неожиданном коде ответа
+     */
+    void send(byte[] body, int length, Inbound responses) throws IOException;
+
+    /**
+     * Дожидается ответов на все отправленные запросы.
+     * @param responses приемник ответов, тот же, что в {@link #send}
+     * @throws IOException при проблемах с соединением или неожиданном коде ответа
+     */
+    void flush(Inbound responses) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
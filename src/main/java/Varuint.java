@@ -1,8 +1,3 @@
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayList;
-
 /**
  * Класс описывающий структуру данных {@code varuint} - беззнаковое целое число в формате ULEB128.
  * @author Mikhail Semenov
@@ -22,17 +17,23 @@ public class Varuint {
     }
 
     private static long decode(byte[] bytes) {
+        return decode(bytes, 0);
+    }
+
+    /**
+     * Декодирует число, записанное в массиве начиная с {@code offset}, без создания промежуточных объектов.
+     * @param bytes массив байтов
+     * @param offset смещение первого байта числа
+     * @return значение числа
+     */
+    static long decode(byte[] bytes, int offset) {
         long value = 0;
         int bitSize = 0;
         int read;
-        InputStream is = new ByteArrayInputStream(bytes);
+        int index = offset;
 
         do {
-            try {
-                read = is.read();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            read = bytes[index++] & 0xFF;
             value += ((long) read & MASK_DATA) << bitSize;
             bitSize += 7;
             if (bitSize >= BITS_LONG) {
@@ -43,21 +44,41 @@ public class Varuint {
     }
 
     private static byte[] encode(long value) {
-        ArrayList<Byte> bytes = new ArrayList<>();
+        byte[] ret = new byte[size(value)];
+        write(value, ret, 0);
+        return ret;
+    }
+
+    /**
+     * Количество байтов, занимаемое числом в формате ULEB128.
+     * @param value число
+     * @return размер в байтах
+     */
+    static int size(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Записывает число в формате ULEB128 в массив начиная с {@code offset}.
+     * @param value число
+     * @param bytes массив байтов
+     * @param offset смещение первого байта числа
+     * @return смещение, следующее за последним записанным байтом
+     */
+    static int write(long value, byte[] bytes, int offset) {
         do {
             byte b = (byte) (value & MASK_DATA);
-            value >>= 7;
+            value >>>= 7;
             if (value != 0) {
                 b |= MASK_CONTINUE;
             }
-            bytes.add(b);
+            bytes[offset++] = b;
         } while (value != 0);
-
-        byte[] ret = new byte[bytes.size()];
-        for (int i = 0; i < bytes.size(); i++) {
-            ret[i] = bytes.get(i);
-        }
-        return ret;
+        return offset;
     }
 
     public long asLong() {
@@ -0,0 +1,144 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.URL;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Тесты {@link HubRuntime} с {@link SimulatedHouse}.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class HubRuntimeTest {
+
+    private static HubState stateOf(Transport transport) {
+        HubState state = new HubState(SimulatedHouse.HUB);
+        state.setTransport(transport);
+        return state;
+    }
+
+    @Test
+    void discoveryTakesOneRequestPerStep() throws IOException {
+        SimulatedHouse house = new SimulatedHouse(100_000);
+        HubTenant tenant = new HubTenant(new URL("http://localhost/"), stateOf(new LocalTransport(house)));
+        int steps = 0;
+        while (tenant.getPhase() == HubTenant.Phase.STARTING) {
+            int requests = house.getRequests();
+            assertTrue(tenant.step());
+            assertTrue(house.getRequests() - requests <= 1);
+            steps++;
+        }
+        assertEquals(HubTenant.Phase.RUNNING, tenant.getPhase());
+        assertTrue(steps > 1);
+        assertEquals(6, tenant.getState().getDevices().size());
+    }
+
+    /** Транспорт, бросающий {@code error} на первом же запросе. */
+    private static Transport throwing(Error error) {
+        return new Transport() {
+            @Override
+            public void send(byte[] body, int length, Inbound responses) {
+                throw error;
+            }
+
+            @Override
+            public void flush(Inbound responses) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    void errorFailsOnlyItsTenant() throws Exception {
+        Transport broken = throwing(new AssertionError("broken"));
+        SimulatedHouse house = new SimulatedHouse(20_000);
+        try (HubRuntime runtime = new HubRuntime(1)) {
+            HubTenant failing = runtime.add(new URL("http://localhost/"), stateOf(broken));
+            HubTenant working = runtime.add(new URL("http://localhost/"), stateOf(new LocalTransport(house)));
+            runtime.awaitTermination();
+            assertEquals(HubTenant.Phase.FAILED, failing.getPhase());
+            assertInstanceOf(AssertionError.class, failing.getFailure());
+            assertEquals(HubTenant.Phase.FINISHED, working.getPhase());
+        }
+    }
+
+    @Test
+    void virtualMachineErrorIsNotSwallowed() throws IOException {
+        HubTenant tenant = new HubTenant(new URL("http://localhost/"), stateOf(throwing(new StackOverflowError())));
+        assertThrows(StackOverflowError.class, tenant::step);
+    }
+
+    @Test
+    void failedRoundDoesNotLeakResponsesToNextTenant() throws IOException {
+        long foreignAddress = 0x42;
+        HubState otherState = stateOf(new LocalTransport(new SimulatedHouse(100_000)));
+        FailingRoundTransport failing = new FailingRoundTransport(new LocalTransport(new SimulatedHouse(100_000)),
+                foreignAddress, (byte) 7);
+        HubTenant broken = new HubTenant(new URL("http://localhost/"), stateOf(failing));
+        HubTenant other = new HubTenant(new URL("http://localhost/"), otherState);
+        while (broken.getPhase() == HubTenant.Phase.STARTING) {
+            broken.step();
+        }
+        while (other.getPhase() == HubTenant.Phase.STARTING) {
+            other.step();
+        }
+        otherState.addDevice(new Device(foreignAddress, DeviceType.LAMP, "LAMP42", 1));     // Модель дома его не знает
+        failing.armed = true;
+        while (broken.step()) {     // Шаги хабов идут в одном потоке, как у рабочего потока HubRuntime
+            // До обрыва раунда
+        }
+        assertEquals(HubTenant.Phase.FAILED, broken.getPhase());
+        assertTrue(other.step());
+        assertFalse(otherState.getDevice(foreignAddress).hasStatus());
+    }
+
+    /**
+     * Транспорт, который после {@link #armed} дописывает к ответу на первый запрос раунда STATUS заданного
+     * устройства, а затем обрывает раунд ошибкой.
+     */
+    private static final class FailingRoundTransport implements Transport {
+
+        private final Transport delegate;
+        private final byte[] status = new byte[32];
+        private final int statusLength;
+
+        private boolean armed;
+        private boolean injected;
+
+        FailingRoundTransport(Transport delegate, long address, byte value) {
+            this.delegate = delegate;
+            this.statusLength = Packet.writeTo(status, 0, address, SimulatedHouse.HUB, 1, (byte) 4, (byte) 4,
+                    new byte[] {value}, 1);
+        }
+
+        @Override
+        public void send(byte[] body, int length, Inbound responses) throws IOException {
+            delegate.send(body, length, responses);
+            if (armed && length > 0) {
+                responses.append(status, 0, statusLength);
+                injected = true;
+            }
+        }
+
+        @Override
+        public void flush(Inbound responses) throws IOException {
+            if (injected) {
+                throw new ProtocolException("Connection reset");
+            }
+            delegate.flush(responses);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import java.net.ProtocolException;
+
+/**
+ * {@link Transport} к {@link SimulatedHouse} в том же потоке, без сети. Тела запросов и ответов кодируются
+ * в base64 так же, как на сервере, и так же не создают объектов.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class LocalTransport implements Transport {
+
+    private final SimulatedHouse house;
+
+    private final byte[] request = new byte[4096];
+    private final byte[] response = new byte[16384];
+    private final byte[] encoded = new byte[Base64Url.encodedLength(16384)];
+
+    LocalTransport(SimulatedHouse house) {
+        this.house = house;
+    }
+
+    @Override
+    public void send(byte[] body, int length, Inbound responses) throws ProtocolException {
+        int requestLength = Base64Url.decode(body, 0, length, request, 0);
+        int responseLength = house.exchange(request, 0, requestLength, response);
+        if (responseLength < 0) {
+            responses.accept(204);
+            return;
+        }
+        responses.accept(200);
+        responses.appendBase64(encoded, 0, Base64Url.encode(response, responseLength, encoded));
+    }
+
+    @Override
+    public void flush(Inbound responses) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Тесты {@link LongMap}: случайные операции сравниваются с {@link HashMap}.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class LongMapTest {
+
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(42);
+        LongMap<Long> map = new LongMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(2048) - 16;      // Отрицательные ключи и коллизии тоже
+            long value = random.nextLong();
+            switch (random.nextInt(3)) {
+                case 0 -> assertEquals(expected.put(key, value), map.put(key, value));
+                case 1 -> assertEquals(expected.remove(key), map.remove(key));
+                default -> assertEquals(expected.get(key), map.get(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        Map<Long, Long> iterated = new HashMap<>();
+        for (int slot = 0; slot < map.capacity(); slot++) {
+            if (map.valueAt(slot) != null) {
+                iterated.put(map.keyAt(slot), map.valueAt(slot));
+            }
+        }
+        assertEquals(expected, iterated);
+    }
+
+    @Test
+    void clearRemovesAllEntries() {
+        LongMap<String> map = new LongMap<>();
+        map.put(1, "one");
+        map.put(0x3FFF, "broadcast");
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(1));
+        assertNull(map.get(0x3FFF));
+    }
+
+    @Test
+    void rejectsNullValues() {
+        assertThrows(NullPointerException.class, () -> new LongMap<String>().put(1, null));
+    }
+}
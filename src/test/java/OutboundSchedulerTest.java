@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Тесты {@link OutboundScheduler}: замена SETSTATUS, лимиты раунда и классов, обслуживание голодающих классов.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class OutboundSchedulerTest {
+
+    /** Отправленные за раунд команды в виде "класс:адрес:значение" */
+    private final List<String> sent = new ArrayList<>();
+
+    private void drain(OutboundScheduler scheduler) throws IOException {
+        sent.clear();
+        scheduler.drain(command -> sent.add(command.priority() + ":" + command.target().getAddress()
+                + ":" + command.value()));
+    }
+
+    private static Device device(long address) {
+        return new Device(address, DeviceType.LAMP, "LAMP" + address, 1);
+    }
+
+    private long count(OutboundScheduler.Priority priority) {
+        return sent.stream().filter(command -> command.startsWith(priority + ":")).count();
+    }
+
+    @Test
+    void replacesQueuedSetStatusInPlace() throws IOException {
+        OutboundScheduler scheduler = new OutboundScheduler();
+        Device first = device(1);
+        Device second = device(2);
+        scheduler.submit(OutboundScheduler.Priority.ACTUATION, (byte) 5, first, (byte) 1);
+        scheduler.submit(OutboundScheduler.Priority.ACTUATION, (byte) 5, second, (byte) 1);
+        scheduler.submit(OutboundScheduler.Priority.ACTUATION, (byte) 5, first, (byte) 0);
+        drain(scheduler);
+        assertEquals(List.of("ACTUATION:1:0", "ACTUATION:2:1"), sent);
+        scheduler.submit(OutboundScheduler.Priority.ACTUATION, (byte) 5, first, (byte) 1);     // Уже отправлен
+        drain(scheduler);
+        assertEquals(List.of("ACTUATION:1:1"), sent);
+    }
+
+    @Test
+    void respectsClassAndRoundLimits() throws IOException {
+        OutboundScheduler scheduler = new OutboundScheduler(5, 2, 2, 2);
+        for (int i = 0; i < 3; i++) {
+            scheduler.submit(OutboundScheduler.Priority.ACTUATION, (byte) 5, device(10 + i), (byte) 1);
+            scheduler.submit(OutboundScheduler.Priority.DISCOVERY, (byte) 2, device(20 + i), (byte) 0);
+            scheduler.submit(OutboundScheduler.Priority.BACKGROUND, (byte) 3, device(30 + i), (byte) 0);
+        }
+        drain(scheduler);
+        assertEquals(5, sent.size());
+        assertEquals(2, count(OutboundScheduler.Priority.ACTUATION));
+        assertEquals(2, count(OutboundScheduler.Priority.DISCOVERY));
+        assertEquals(1, count(OutboundScheduler.Priority.BACKGROUND));
+        drain(scheduler);
+        assertEquals(List.of("ACTUATION:12:1", "DISCOVERY:22:0", "BACKGROUND:31:0", "BACKGROUND:32:0"), sent);
+    }
+
+    @Test
+    void servesStarvedClassFirst() throws IOException {
+        OutboundScheduler scheduler = new OutboundScheduler(2, 2, 2, 2);
+        scheduler.submit(OutboundScheduler.Priority.BACKGROUND, (byte) 3, device(30), (byte) 0);
+        for (int round = 1; round <= OutboundScheduler.STARVATION_ROUNDS + 1; round++) {
+            scheduler.submit(OutboundScheduler.Priority.ACTUATION, (byte) 5, device(round * 2), (byte) 1);
+            scheduler.submit(OutboundScheduler.Priority.ACTUATION, (byte) 5, device(round * 2 + 1), (byte) 1);
+            drain(scheduler);
+            assertEquals(2, sent.size());
+            if (round <= OutboundScheduler.STARVATION_ROUNDS) {
+                assertEquals(0, count(OutboundScheduler.Priority.BACKGROUND));
+            } else {
+                assertEquals("BACKGROUND:30:0", sent.get(0));
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Сравнение последовательной и параллельной проверки пачек разного размера в {@link PacketScanner},
+ * по нему выбран {@link PacketScanner#PARALLEL_THRESHOLD}. Не входит в обычный прогон тестов, запускается явно:
+ * {@code mvn test -Dtest=PacketScannerBenchmark}. Результат выводится в стандартный вывод.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class PacketScannerBenchmark {
+
+    private static final int[] SIZES = {64, 256, 512, 1024, 2048, 4096, 16384};
+
+    private static final int WARMUP_MILLIS = 300;
+    private static final int MEASURED_MILLIS = 300;
+
+    @Test
+    void compareSequentialAndParallel() {
+        System.out.printf("Common pool parallelism %d%n", ForkJoinPool.getCommonPoolParallelism());
+        for (int size : SIZES) {
+            byte[] bytes = new byte[size * 24];
+            int length = 0;
+            byte[] body = new byte[8];
+            for (int i = 0; i < size; i++) {       // Пакеты STATUS типичной длины
+                length += Packet.writeTo(bytes, length, 0x100 + i, 1, i + 1, (byte) 2, (byte) 4, body, i % 8);
+            }
+            double sequential = measure(new PacketScanner(Integer.MAX_VALUE), bytes, length);
+            double parallel = measure(new PacketScanner(1), bytes, length);
+            System.out.printf("%6d packets: sequential %8.1f us, parallel %8.1f us (x%.2f)%n",
+                    size, sequential, parallel, sequential / parallel);
+        }
+    }
+
+    /** @return среднее время проверки пачки в микросекундах */
+    private static double measure(PacketScanner scanner, byte[] bytes, int length) {
+        long deadline = System.nanoTime() + WARMUP_MILLIS * 1_000_000L;
+        while (System.nanoTime() < deadline) {
+            scanner.scan(bytes, length);
+        }
+        int runs = 0;
+        long started = System.nanoTime();
+        deadline = started + MEASURED_MILLIS * 1_000_000L;
+        long now;
+        do {
+            scanner.scan(bytes, length);
+            runs++;
+        } while ((now = System.nanoTime()) < deadline);
+        return (now - started) / 1000.0 / runs;
+    }
+}
@@ -0,0 +1,66 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Тесты {@link PacketScanner}: параллельная проверка большой пачки дает тот же результат, что и последовательная.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class PacketScannerTest {
+
+    /** Пакетов в пачке: больше {@link PacketScanner#PARALLEL_THRESHOLD} */
+    private static final int PACKETS = 3 * PacketScanner.PARALLEL_THRESHOLD + 17;
+
+    /** Каждый пакет с этим шагом испорчен */
+    private static final int CORRUPT_EVERY = 7;
+
+    @Test
+    void parallelCheckMatchesSequential() {
+        byte[] bytes = new byte[PACKETS * 64];
+        int[] expectedOffsets = new int[PACKETS];
+        byte[] body = new byte[16];
+        int length = 0;
+        for (int i = 0; i < PACKETS; i++) {
+            expectedOffsets[i] = length;
+            int bodyLength = i % body.length;       // Пакеты разной длины
+            Arrays.fill(body, (byte) i);
+            length += Packet.writeTo(bytes, length, i % 0x3FFF, 1, i + 1, (byte) 4, (byte) 4, body, bodyLength);
+            if (i % CORRUPT_EVERY == 0) {
+                bytes[length - 1] ^= 0x5A;      // Контрольная сумма
+            }
+        }
+        int tail = Packet.writeTo(bytes, length, 2, 1, 1, (byte) 4, (byte) 4, body, 8);
+        length += tail - 3;     // Обрезанный последний пакет
+
+        PacketScanner sequential = new PacketScanner(Integer.MAX_VALUE);
+        PacketScanner parallel = new PacketScanner();
+        assertEquals(PACKETS, sequential.scan(bytes, length));
+        assertEquals(PACKETS, parallel.scan(bytes, length));
+        for (int i = 0; i < PACKETS; i++) {
+            assertEquals(expectedOffsets[i], sequential.getOffset(i));
+            assertEquals(expectedOffsets[i], parallel.getOffset(i));
+            assertEquals(i % CORRUPT_EVERY != 0, sequential.isValid(i), "packet " + i);
+            assertEquals(sequential.isValid(i), parallel.isValid(i), "packet " + i);
+        }
+    }
+
+    @Test
+    void rescansSmallerBatchWithSameArrays() {
+        byte[] bytes = new byte[4096];
+        int length = 0;
+        for (int i = 0; i < 100; i++) {
+            length += Packet.writeTo(bytes, length, 3, 1, i + 1, (byte) 3, (byte) 4, new byte[] {1}, 1);
+        }
+        PacketScanner scanner = new PacketScanner(10);
+        assertEquals(100, scanner.scan(bytes, length));
+        assertEquals(0, scanner.scan(bytes, 2));
+        assertEquals(3, scanner.scan(bytes, length / 100 * 3));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(scanner.isValid(i));
+        }
+    }
+}
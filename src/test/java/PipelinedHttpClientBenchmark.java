@@ -0,0 +1,74 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Сравнение раунда исходящих запросов через {@link HttpTransport#createHttpURLConnection} (отдельное соединение
+ * на запрос, как в цикле управления) и через {@link PipelinedHttpClient} (одна конвейерная пачка) на
+ * {@link StandInServer}. Не входит в обычный прогон тестов, запускается явно:
+ * {@code mvn test -Dtest=PipelinedHttpClientBenchmark}. Результат выводится в стандартный вывод.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class PipelinedHttpClientBenchmark {
+
+    /** Запросов в раунде */
+    private static final int ROUND = 8;
+
+    private static final int WARMUP_ROUNDS = 100;
+    private static final int MEASURED_ROUNDS = 500;
+
+    /** GETSTATUS в base64 */
+    private static final byte[] BODY = "DYEAAYEAA6IBAgMAvg".getBytes();
+
+    @Test
+    void compareTransports() throws Exception {
+        try (StandInServer server = new StandInServer(packets -> packets);
+             PipelinedHttpClient client = new PipelinedHttpClient(server.getUrl(), 1000)) {
+            URL url = server.getUrl();
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                httpUrlConnectionRound(url);
+                pipelinedRound(client);
+            }
+            long started = System.nanoTime();
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                httpUrlConnectionRound(url);
+            }
+            long httpUrlConnection = System.nanoTime() - started;
+            started = System.nanoTime();
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                pipelinedRound(client);
+            }
+            long pipelined = System.nanoTime() - started;
+            System.out.printf("Round of %d requests: HttpURLConnection %.1f us, PipelinedHttpClient %.1f us (x%.1f)%n",
+                    ROUND, httpUrlConnection / 1000.0 / MEASURED_ROUNDS, pipelined / 1000.0 / MEASURED_ROUNDS,
+                    (double) httpUrlConnection / pipelined);
+        }
+    }
+
+    private static void httpUrlConnectionRound(URL url) throws IOException {
+        for (int i = 0; i < ROUND; i++) {
+            HttpURLConnection connection = HttpTransport.createHttpURLConnection(url);
+            connection.connect();
+            OutputStream os = connection.getOutputStream();
+            os.write(BODY);
+            os.close();
+            connection.getResponseCode();
+            try (InputStream is = connection.getInputStream()) {
+                is.readAllBytes();
+            }
+            connection.disconnect();
+        }
+    }
+
+    private static void pipelinedRound(PipelinedHttpClient client) throws IOException {
+        for (int i = 0; i < ROUND; i++) {
+            client.add(BODY, BODY.length);
+        }
+        client.exchange(new Inbound());
+    }
+}
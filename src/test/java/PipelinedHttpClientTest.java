@@ -0,0 +1,175 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Тесты {@link PipelinedHttpClient} с {@link StandInServer}.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class PipelinedHttpClientTest {
+
+    private StandInServer server;
+    private PipelinedHttpClient client;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /** Эхо-сервер: отвечает пакетами запроса. */
+    private void startEcho() throws IOException {
+        server = new StandInServer(packets -> packets);
+        client = new PipelinedHttpClient(server.getUrl(), 1000);
+    }
+
+    private void add(String packets) {
+        byte[] body = Base64.getUrlEncoder().withoutPadding().encode(packets.getBytes(StandardCharsets.US_ASCII));
+        client.add(body, body.length);
+    }
+
+    /** Отправляет накопленные запросы и проверяет, что пакеты ответов дописаны по порядку. */
+    private void assertExchange(String... expected) throws IOException {
+        Inbound inbound = new Inbound();
+        client.exchange(inbound);
+        assertArrayEquals(String.join("", expected).getBytes(StandardCharsets.US_ASCII),
+                Arrays.copyOf(inbound.getPackets(), inbound.getLength()));
+    }
+
+    @Test
+    void pipelinesBatchOverOneConnection() throws IOException {
+        startEcho();
+        add("first");
+        add("second");
+        add("third");
+        assertExchange("first", "second", "third");
+        add("fourth");
+        assertExchange("fourth");
+        assertEquals(1, server.getConnections());
+    }
+
+    @Test
+    void emptyBatchSendsNothing() throws IOException {
+        startEcho();
+        Inbound inbound = new Inbound();
+        client.exchange(inbound);
+        assertEquals(0, inbound.getLength());
+        assertEquals(0, server.getConnections());
+    }
+
+    @Test
+    void reconnectsWhenIdleConnectionWasClosed() throws IOException {
+        startEcho();
+        server.closeAfter(1, false);
+        add("first");
+        assertExchange("first");
+        add("second");
+        assertExchange("second");
+        assertEquals(2, server.getConnections());
+        assertEquals(2, server.getRequests());
+    }
+
+    @Test
+    void resendsUnansweredRequestsAfterConnectionClose() throws IOException {
+        startEcho();
+        server.closeAfter(2, true);
+        for (int i = 0; i < 5; i++) {
+            add("request" + i);
+        }
+        assertExchange("request0", "request1", "request2", "request3", "request4");
+        assertEquals(3, server.getConnections());
+        assertEquals(5, server.getRequests());
+    }
+
+    @Test
+    void failsBatchAfterSilentCloseMidBatch() throws IOException {
+        startEcho();
+        server.closeAfter(1, false);
+        add("first");
+        add("second");
+        add("third");
+        assertThrows(IOException.class, () -> client.exchange(new Inbound()));
+        assertEquals(1, server.getConnections());       // Неотвеченные запросы не отправлены повторно
+        assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    void doesNotResendAfterFreshConnectionCloses() throws IOException {
+        server = new StandInServer(packets -> {
+            throw new IOException("drop");      // Сервер закрывает соединение, не ответив
+        });
+        client = new PipelinedHttpClient(server.getUrl(), 1000);
+        add("first");
+        assertThrows(IOException.class, () -> client.exchange(new Inbound()));
+        assertEquals(1, server.getConnections());
+    }
+
+    @Test
+    void clientsShareThreadBuffersBetweenBatches() throws Exception {
+        startEcho();
+        try (PipelinedHttpClient other = new PipelinedHttpClient(server.getUrl(), 1000)) {
+            add("first");
+            assertThrows(IllegalStateException.class, () -> other.add(new byte[0], 0));
+            assertExchange("first");
+            byte[] body = Base64.getUrlEncoder().withoutPadding().encode("other".getBytes(StandardCharsets.US_ASCII));
+            other.add(body, body.length);
+            Inbound inbound = new Inbound();
+            other.exchange(inbound);
+            assertArrayEquals("other".getBytes(StandardCharsets.US_ASCII),
+                    Arrays.copyOf(inbound.getPackets(), inbound.getLength()));
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {         // Между пачками клиент переходит к другому потоку
+                add("moved");
+                assertExchange("moved");
+                return null;
+            }).get();
+        } finally {
+            executor.shutdown();
+        }
+        add("back");
+        assertExchange("back");
+        assertEquals(4, server.getRequests());
+    }
+
+    @Test
+    void reportsNoContent() throws IOException {
+        server = new StandInServer(packets -> null);
+        client = new PipelinedHttpClient(server.getUrl(), 1000);
+        add("last");
+        Inbound inbound = new Inbound();
+        client.exchange(inbound);
+        assertTrue(inbound.isFinished());
+        assertEquals(0, inbound.getLength());
+    }
+
+    @Test
+    void doesNotResendAfterTimeout() throws IOException {
+        server = new StandInServer(packets -> {
+            Thread.sleep(500);
+            return packets;
+        });
+        client = new PipelinedHttpClient(server.getUrl(), 100);
+        add("slow");
+        assertThrows(SocketTimeoutException.class, () -> client.exchange(new Inbound()));
+        assertEquals(1, server.getConnections());
+    }
+}
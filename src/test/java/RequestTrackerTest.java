@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Тесты {@link RequestTracker}: истечение сроков ответа и их снятие ответом устройства.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class RequestTrackerTest {
+
+    @Test
+    void expiresAfterReplyDeadline() {
+        RequestTracker tracker = new RequestTracker();
+        tracker.expectReply(5, 100);
+        tracker.advance(100 + RequestTracker.REPLY_DEADLINE);
+        assertEquals(-1, tracker.pollExpired());
+        tracker.advance(101 + RequestTracker.REPLY_DEADLINE);
+        assertEquals(5, tracker.pollExpired());
+        assertEquals(-1, tracker.pollExpired());
+    }
+
+    @Test
+    void replyClearsDeadline() {
+        RequestTracker tracker = new RequestTracker();
+        tracker.expectReply(5, 100);
+        tracker.acknowledge(5);
+        tracker.advance(10_000);
+        assertEquals(-1, tracker.pollExpired());
+
+        tracker.expectReply(5, 10_000);     // Запись устройства переиспользуется
+        tracker.advance(10_001 + RequestTracker.REPLY_DEADLINE);
+        assertEquals(5, tracker.pollExpired());
+    }
+
+    @Test
+    void keepsEarliestDeadlinePerDevice() {
+        RequestTracker tracker = new RequestTracker();
+        tracker.expectReply(5, 100);
+        tracker.expectReply(6, 150);
+        tracker.expectReply(5, 200);
+        tracker.advance(101 + RequestTracker.REPLY_DEADLINE);
+        assertEquals(5, tracker.pollExpired());
+        assertEquals(-1, tracker.pollExpired());
+        tracker.advance(151 + RequestTracker.REPLY_DEADLINE);
+        assertEquals(6, tracker.pollExpired());
+    }
+
+    @Test
+    void timeDoesNotGoBack() {
+        RequestTracker tracker = new RequestTracker();
+        tracker.advance(1_000);
+        tracker.advance(500);
+        assertEquals(1_000, tracker.getCurrentTick());
+    }
+}
@@ -0,0 +1,99 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Тесты {@link SensorHistory}: кольцевые буферы последних показаний и корзин, семантика окна запроса,
+ * соответствие значений STATUS каналам и запросы без выделения памяти.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class SensorHistoryTest {
+
+    private static final int RAW = SensorHistory.RAW_CAPACITY;
+    private static final int DOWNSAMPLE = SensorHistory.DOWNSAMPLE;
+    private static final int COARSE = SensorHistory.COARSE_CAPACITY;
+
+    private final SensorHistory.RangeStats stats = new SensorHistory.RangeStats();
+
+    /** Записывает в канал 0 показания 0, 1, ..., count - 1 с временем, равным значению. */
+    private static SensorHistory filled(int count) {
+        SensorHistory history = new SensorHistory(0x1);
+        for (int i = 0; i < count; i++) {
+            history.record(0, i, i);
+        }
+        return history;
+    }
+
+    private void assertStats(long count, long min, long max, SensorHistory.RangeStats actual) {
+        assertEquals(count, actual.getCount());
+        assertEquals(min, actual.getMin());
+        assertEquals(max, actual.getMax());
+    }
+
+    @Test
+    void keepsLatestReadingsAfterWraparound() {
+        int extra = DOWNSAMPLE / 2;     // Вытесненные показания еще не свернуты в корзину
+        SensorHistory history = filled(RAW + extra);
+        assertStats(RAW + extra, 0, RAW + extra - 1, history.query(0, 0, Long.MAX_VALUE, stats));
+        assertStats(RAW, extra, RAW + extra - 1, history.query(0, extra, Long.MAX_VALUE, stats));
+        assertEquals((RAW + extra - 1) / 2.0, history.query(0, 0, Long.MAX_VALUE, stats).getAverage());
+        assertEquals(0, history.query(1, 0, Long.MAX_VALUE, stats).getCount());
+    }
+
+    @Test
+    void dropsOldestBucketsAfterRollover() {
+        int dropped = 2;
+        SensorHistory history = filled(RAW + DOWNSAMPLE * (COARSE + dropped));
+        long first = (long) DOWNSAMPLE * dropped;
+        long last = RAW + (long) DOWNSAMPLE * (COARSE + dropped) - 1;
+        assertStats(RAW + (long) DOWNSAMPLE * COARSE, first, last, history.query(0, 0, Long.MAX_VALUE, stats));
+        assertEquals(0, history.query(0, 0, first - 1, stats).getCount());
+    }
+
+    @Test
+    void countsWholeBucketOnPartialOverlap() {
+        SensorHistory history = filled(RAW + DOWNSAMPLE * 3);
+        long bucketStart = DOWNSAMPLE;      // Вторая корзина: показания DOWNSAMPLE..2*DOWNSAMPLE-1
+        assertStats(DOWNSAMPLE, bucketStart, bucketStart + DOWNSAMPLE - 1,
+                history.query(0, bucketStart + 1, bucketStart + 2, stats));
+        assertStats(2L * DOWNSAMPLE, bucketStart, bucketStart + 2 * DOWNSAMPLE - 1,
+                history.query(0, bucketStart + DOWNSAMPLE - 1, bucketStart + DOWNSAMPLE, stats));
+        long rawStart = DOWNSAMPLE * 3L;     // Последние показания учитываются точно
+        assertStats(2, rawStart + 1, rawStart + 2, history.query(0, rawStart + 1, rawStart + 2, stats));
+    }
+
+    @Test
+    void mapsStatusValuesToMaskedChannels() {
+        SensorHistory history = new SensorHistory(0b1010);     // Влажность и загрязнение
+        assertEquals(1, history.channelOf(0));
+        assertEquals(3, history.channelOf(1));
+        assertEquals(-1, history.channelOf(2));
+        history.setSensors(0);      // Маска неизвестна: значения по порядку каналов
+        for (int i = 0; i < SensorHistory.CHANNELS; i++) {
+            assertEquals(i, history.channelOf(i));
+        }
+        assertEquals(-1, history.channelOf(SensorHistory.CHANNELS));
+    }
+
+    @Test
+    void queryDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        SensorHistory history = filled(RAW + DOWNSAMPLE * (COARSE + 1) + 3);
+        int queries = 200_000;
+        long sink = 0;
+        for (int i = 0; i < queries; i++) {     // Прогрев
+            sink += history.query(0, i % 400, i % 400 + 50, stats).getCount();
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < queries; i++) {
+            sink += history.query(0, i % 400, i % 400 + 50, stats).getCount();
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(sink > 0);
+        assertTrue(allocated < queries, allocated + " bytes allocated for " + queries + " queries");
+    }
+}
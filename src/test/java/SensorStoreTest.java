@@ -0,0 +1,48 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Тесты {@link SensorStore}: значения из тела STATUS попадают в каналы по маске датчика.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class SensorStoreTest {
+
+    private static final long ADDRESS = 0x2;
+
+    private final SensorHistory.RangeStats stats = new SensorHistory.RangeStats();
+
+    private long valueOf(SensorStore store, int channel) {
+        SensorHistory.RangeStats result = store.get(ADDRESS).query(channel, 0, Long.MAX_VALUE, stats);
+        return result.getCount() == 0 ? -1 : result.getMax();
+    }
+
+    @Test
+    void recordsValuesIntoMaskedChannels() {
+        SensorStore store = new SensorStore();
+        store.register(ADDRESS, 0b0101);        // Температура и освещенность
+        byte[] body = new byte[16];
+        body[0] = 2;
+        int length = Varuint.write(21, body, 1);
+        length = Varuint.write(300, body, length);      // Двухбайтовое значение
+        store.record(ADDRESS, 100, body, 0, length);
+        assertEquals(21, valueOf(store, 0));
+        assertEquals(-1, valueOf(store, 1));
+        assertEquals(300, valueOf(store, 2));
+        assertEquals(-1, valueOf(store, 3));
+    }
+
+    @Test
+    void recordsFromSliceOfPacket() {
+        SensorStore store = new SensorStore();
+        store.register(ADDRESS, 0b0010);
+        byte[] packet = {9, 9, 9, 1, 55, 9};
+        store.record(ADDRESS, 100, packet, 3, 2);
+        assertEquals(55, valueOf(store, 1));
+        store.record(ADDRESS, 200, packet, 3, 0);        // Пустое тело пропускается
+        assertEquals(1, store.get(ADDRESS).query(1, 0, Long.MAX_VALUE, stats).getCount());
+        assertNull(store.get(ADDRESS + 1));
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Модель дома для тестов без сети: хаб, датчик, выключатель с ведомыми лампой и розеткой и часы.
+ * Обмен идет пакетами в том же формате, что и с сервером умного дома: на любой запрос возвращается тик,
+ * затем накопившиеся для хаба пакеты. Каждый запрос продвигает время модели на {@link #TICKS_PER_REQUEST},
+ * выключатель переключается каждые {@link #TOGGLE_PERIOD} тиков начиная с {@link #FIRST_TOGGLE}: к этому времени
+ * выявление устройств закончено (при выявлении хаб не передает состояние выключателя ведомым).
+ * Устройство можно сделать неотвечающим ({@link #setResponsive}): команды ему теряются, как при обрыве связи.
+ * Модель не создает объектов после создания, поэтому не искажает измерение выделяемой хабом памяти.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class SimulatedHouse {
+
+    static final long HUB = 0x0001;
+    static final long SENSOR = 0x0002;
+    static final long SWITCH = 0x0003;
+    static final long LAMP = 0x0004;
+    static final long SOCKET = 0x0005;
+    static final long CLOCK = 0x0006;
+
+    /** Шаг времени модели на запрос: {@value}. */
+    static final long TICKS_PER_REQUEST = 50;
+
+    /** Период переключения выключателя в тиках: {@value}. */
+    static final long TOGGLE_PERIOD = 1_000;
+
+    /** Время первого переключения выключателя от начала работы: {@value}. */
+    static final long FIRST_TOGGLE = 5_000;
+
+    private static final byte SENSOR_MASK = 0x3;
+
+    /** Время окончания работы: после него сервер отвечает 204 */
+    private final long endTime;
+
+    private long time = 1_000;
+
+    /** Пакеты, накопившиеся для хаба */
+    private final byte[] queue = new byte[8192];
+    private int queueLength;
+
+    /** Номера пакетов устройств по адресу */
+    private final long[] serials = new long[7];
+
+    /** Неотвечающие устройства по адресу */
+    private final boolean[] unresponsive = new boolean[7];
+
+    /** SETSTATUS, отправленные хабом, по адресу устройства */
+    private final int[] setStatuses = new int[7];
+
+    private final byte[] body = new byte[64];
+    private final PacketView view = new PacketView();
+
+    private long nextToggle;
+    private byte switchState;
+    private byte lampState;
+    private byte socketState;
+
+    /** Последний номер пакета хаба */
+    private long lastHubSerial;
+    private int serialViolations;
+
+    /** Переключения, к которым ведомые не успели повторить состояние выключателя */
+    private int mismatches;
+    private int toggles;
+    private int requests;
+
+    /**
+     * @param duration время работы модели в тиках
+     */
+    SimulatedHouse(long duration) {
+        this.endTime = time + duration;
+        this.nextToggle = time + FIRST_TOGGLE;
+    }
+
+    /**
+     * Обрабатывает запрос хаба.
+     * @param request байты пакетов запроса
+     * @param offset начало пакетов
+     * @param length длина пакетов, 0 - опрос
+     * @param response массив для пакетов ответа
+     * @return длина ответа или -1 - работа окончена (ответ 204)
+     */
+    int exchange(byte[] request, int offset, int length, byte[] response) {
+        if (time >= endTime) {
+            return -1;
+        }
+        requests++;
+        time += TICKS_PER_REQUEST;
+        for (int i = offset; i < offset + length; i += (request[i] & 0xFF) + 2) {
+            if (Packet.hasValidCrc(request, i) && view.wrap(request, i)) {
+                handle(view);
+            }
+        }
+        if (time >= nextToggle) {
+            toggle();
+        }
+        int responseLength = write(response, 0, CLOCK, 0x3FFF, (byte) 6, (byte) 6, Varuint.write(time, body, 0));
+        System.arraycopy(queue, 0, response, responseLength, queueLength);
+        responseLength += queueLength;
+        queueLength = 0;
+        return responseLength;
+    }
+
+    private void handle(PacketView packet) {
+        if (packet.getSrc() == HUB) {
+            if (packet.getSerial() <= lastHubSerial) {
+                serialViolations++;
+            }
+            lastHubSerial = packet.getSerial();
+        }
+        if (packet.getCmd() == 5 && packet.getDst() < setStatuses.length) {
+            setStatuses[(int) packet.getDst()]++;
+        }
+        if (packet.getDst() < unresponsive.length && unresponsive[(int) packet.getDst()]) {
+            return;     // Команда до устройства не дошла
+        }
+        switch (packet.getCmd()) {
+            case 1 -> {
+                queueIamhere(SENSOR, (byte) 2, "SENSOR01", SENSOR_MASK);
+                queueIamhere(SWITCH, (byte) 3, "SWITCH01", 0);
+                queueIamhere(LAMP, (byte) 4, "LAMP01", 0);
+                queueIamhere(SOCKET, (byte) 5, "SOCKET01", 0);
+                queueIamhere(CLOCK, (byte) 6, "CLOCK01", 0);
+            }
+            case 3 -> queueStatus(packet.getDst());
+            case 5 -> {
+                byte value = packet.getBytes()[packet.getBodyOffset()];
+                if (packet.getDst() == LAMP) {
+                    lampState = value;
+                } else if (packet.getDst() == SOCKET) {
+                    socketState = value;
+                }
+                queueStatus(packet.getDst());
+            }
+            default -> {}
+        }
+    }
+
+    /**
+     * Кратковременно переключает выключатель и возвращает обратно: следующий ответ хабу содержит STATUS
+     * выключателя с новым состоянием, тик и STATUS с прежним состоянием.
+     */
+    void flickerSwitch() {
+        switchState = (byte) (1 - switchState);
+        queueStatus(SWITCH);
+        long tick = time + TICKS_PER_REQUEST + 1;     // Между тиком начала следующего ответа и тиком за ним
+        queueLength += write(queue, queueLength, CLOCK, 0x3FFF, (byte) 6, (byte) 6, Varuint.write(tick, body, 0));
+        switchState = (byte) (1 - switchState);
+        queueStatus(SWITCH);
+    }
+
+    private void toggle() {
+        toggles++;
+        if (lampState != switchState || socketState != switchState) {
+            mismatches++;
+        }
+        switchState = (byte) (1 - switchState);
+        nextToggle += TOGGLE_PERIOD;
+        queueStatus(SWITCH);
+    }
+
+    private void queueIamhere(long address, byte devType, String name, int sensors) {
+        int length = 0;
+        body[length++] = (byte) name.length();
+        for (int i = 0; i < name.length(); i++) {
+            body[length++] = (byte) name.charAt(i);
+        }
+        if (devType == 2) {
+            body[length++] = (byte) sensors;
+            body[length++] = 0;     // Без порогов
+        } else if (devType == 3) {
+            body[length++] = 2;
+            length = writeString(length, "LAMP01");
+            length = writeString(length, "SOCKET01");
+        }
+        queueLength += write(queue, queueLength, address, HUB, devType, (byte) 2, length);
+    }
+
+    private int writeString(int offset, String value) {
+        body[offset++] = (byte) value.length();
+        for (int i = 0; i < value.length(); i++) {
+            body[offset++] = (byte) value.charAt(i);
+        }
+        return offset;
+    }
+
+    private void queueStatus(long address) {
+        int length;
+        byte devType;
+        if (address == SENSOR) {
+            devType = 2;
+            body[0] = 2;
+            length = Varuint.write(time % 40, body, 1);
+            length = Varuint.write(time % 1000, body, length);
+        } else {
+            devType = (byte) address;       // Адрес совпадает с типом устройства
+            body[0] = address == SWITCH ? switchState : address == LAMP ? lampState : socketState;
+            length = 1;
+        }
+        queueLength += write(queue, queueLength, address, HUB, devType, (byte) 4, length);
+    }
+
+    private int write(byte[] bytes, int offset, long src, long dst, byte devType, byte cmd, int bodyLength) {
+        return Packet.writeTo(bytes, offset, src, dst, ++serials[(int) src], devType, cmd, body, bodyLength);
+    }
+
+    /**
+     * Делает устройство отвечающим или неотвечающим. Неотвечающее устройство не получает команд хаба
+     * и не присылает STATUS.
+     * @param address адрес устройства
+     * @param responsive отвечает ли устройство
+     */
+    void setResponsive(long address, boolean responsive) {
+        unresponsive[(int) address] = !responsive;
+    }
+
+    /**
+     * @param address адрес устройства
+     * @return количество SETSTATUS, отправленных хабом устройству, в том числе неотвечающему
+     */
+    int getSetStatuses(long address) {
+        return setStatuses[(int) address];
+    }
+
+    byte getSwitchState() {
+        return switchState;
+    }
+
+    int getSerialViolations() {
+        return serialViolations;
+    }
+
+    int getMismatches() {
+        return mismatches;
+    }
+
+    int getToggles() {
+        return toggles;
+    }
+
+    int getRequests() {
+        return requests;
+    }
+
+    byte getLampState() {
+        return lampState;
+    }
+}
@@ -0,0 +1,102 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Тесты цикла управления {@link SmartHub} с {@link SimulatedHouse}.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class SmartHubTest {
+
+    private static HubState start(SimulatedHouse house) throws IOException {
+        HubState state = new HubState(SimulatedHouse.HUB);
+        state.setTransport(new LocalTransport(house));
+        SmartHub.start(null, state);
+        return state;
+    }
+
+    @Test
+    void discoversDevices() throws IOException {
+        HubState state = start(new SimulatedHouse(100_000));
+        assertEquals(6, state.getDevices().size());
+        assertNotNull(state.getSensors().get(SimulatedHouse.SENSOR));
+        long[] slaves = state.getMasterToSlaves().get(SimulatedHouse.SWITCH);
+        assertNotNull(slaves);
+        assertEquals(2, slaves.length);
+    }
+
+    @Test
+    void slavesFollowSwitchUntilServerFinishes() throws IOException {
+        SimulatedHouse house = new SimulatedHouse(100_000);
+        HubState state = start(house);
+        int steps = 0;
+        while (SmartHub.step(state) >= 0) {
+            steps++;
+        }
+        assertTrue(steps > 0);
+        assertTrue(house.getToggles() > 50);
+        assertEquals(0, house.getMismatches());
+        assertEquals(0, house.getSerialViolations());
+        for (Device device : state.getDevices()) {
+            assertTrue(device.isReachable(), device::toString);
+        }
+        assertEquals(house.getLampState(), state.getDevice(SimulatedHouse.LAMP).getStatus());
+    }
+
+    @Test
+    void lastSwitchStateWinsWithinBatch() throws IOException {
+        SimulatedHouse house = new SimulatedHouse(100_000);
+        HubState state = start(house);
+        assertEquals(0, state.getDevice(SimulatedHouse.LAMP).getStatus());
+        house.flickerSwitch();      // SETSTATUS 1 ставится в очередь на тике, вслед за ним нужен SETSTATUS 0
+        SmartHub.step(state);
+        assertEquals(0, house.getLampState());
+        SmartHub.step(state);
+        assertEquals(0, state.getDevice(SimulatedHouse.LAMP).getStatus());
+    }
+
+    @Test
+    void unreachableSlaveIsSkippedUntilPollBringsItBack() throws IOException {
+        SimulatedHouse house = new SimulatedHouse(1_000_000);
+        HubState state = start(house);
+        Device lamp = state.getDevice(SimulatedHouse.LAMP);
+        while (house.getToggles() == 0) {
+            assertTrue(SmartHub.step(state) >= 0);
+        }
+        house.setResponsive(SimulatedHouse.LAMP, false);      // SETSTATUS на переключение теряется
+        for (int steps = 0; lamp.isReachable(); steps++) {
+            assertTrue(steps < 200, "лампа не признана недоступной");
+            assertTrue(SmartHub.step(state) >= 0);
+        }
+
+        int lampCommands = house.getSetStatuses(SimulatedHouse.LAMP);
+        int socketCommands = house.getSetStatuses(SimulatedHouse.SOCKET);
+        for (int toggles = house.getToggles() + 3; house.getToggles() < toggles; ) {
+            assertTrue(SmartHub.step(state) >= 0);
+        }
+        SmartHub.step(state);
+        assertEquals(lampCommands, house.getSetStatuses(SimulatedHouse.LAMP));
+        assertTrue(house.getSetStatuses(SimulatedHouse.SOCKET) >= socketCommands + 3);
+
+        house.setResponsive(SimulatedHouse.LAMP, true);
+        for (int steps = 0; !lamp.isReachable(); steps++) {
+            assertTrue(steps < 2_000, "опрос не вернул лампу");
+            assertTrue(SmartHub.step(state) >= 0);
+        }
+        assertFalse(lamp.hasCommandedStatus());     // Потерянная команда не подавляет следующую с тем же значением
+        for (int i = 0; i < 2; i++) {
+            for (int toggles = house.getToggles() + 1; house.getToggles() < toggles; ) {
+                assertTrue(SmartHub.step(state) >= 0);
+            }
+            SmartHub.step(state);
+            assertEquals(house.getSwitchState(), house.getLampState());
+        }
+        assertTrue(house.getSetStatuses(SimulatedHouse.LAMP) > lampCommands);
+    }
+}
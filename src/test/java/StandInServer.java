@@ -0,0 +1,180 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Заменитель сервера умного дома для тестов: минимальный HTTP/1.1-сервер на {@link ServerSocket}.
+ * Запросы одного соединения обслуживаются строго по порядку, поэтому сервер принимает конвейерные пачки.
+ * Тело запроса декодируется из base64 и передается {@link Handler}, его результат кодируется обратно.
+ * Можно ограничить число ответов на соединение: после последнего сервер закрывает соединение,
+ * с заголовком {@code Connection: close} или без него, как при закрытии простаивающего keep-alive.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class StandInServer implements AutoCloseable {
+
+    /** Обработчик запроса. */
+    @FunctionalInterface
+    interface Handler {
+        /**
+         * @param packets декодированные байты пакетов запроса
+         * @return байты пакетов ответа или {@code null} - ответ 204
+         */
+        byte[] handle(byte[] packets) throws Exception;
+    }
+
+    private final ServerSocket serverSocket;
+    private final Handler handler;
+    private final Thread acceptor;
+
+    private volatile int responsesPerConnection = Integer.MAX_VALUE;
+    private volatile boolean announceClose;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    StandInServer(Handler handler) throws IOException {
+        this.handler = handler;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.acceptor = new Thread(this::accept, "stand-in-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Ограничивает число ответов на одно соединение.
+     * @param responses число ответов, после которого соединение закрывается
+     * @param announce сообщать ли о закрытии заголовком {@code Connection: close}
+     */
+    void closeAfter(int responses, boolean announce) {
+        this.responsesPerConnection = responses;
+        this.announceClose = announce;
+    }
+
+    URL getUrl() throws IOException {
+        return new URL("http", serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort(), "/");
+    }
+
+    /** @return количество принятых соединений */
+    int getConnections() {
+        return connections.get();
+    }
+
+    /** @return количество обработанных запросов */
+    int getRequests() {
+        return requests.get();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                Thread thread = new Thread(() -> serve(socket), "stand-in-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            for (int served = 1; ; served++) {
+                byte[] body = readRequest(in);
+                if (body == null) {
+                    return;
+                }
+                requests.incrementAndGet();
+                String text = new String(body, StandardCharsets.US_ASCII).trim();
+                byte[] packets = handler.handle(Base64.getUrlDecoder().decode(text));
+                boolean last = served >= responsesPerConnection;
+                writeResponse(out, packets, last && announceClose);
+                if (last) {
+                    socket.shutdownOutput();
+                    drain(socket, in);
+                    return;
+                }
+            }
+        } catch (Exception ignored) {
+        }
+    }
+
+    /** Читает запрос. Возвращает тело или {@code null}, если клиент закрыл соединение. */
+    private static byte[] readRequest(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int contentLength = 0;
+        boolean empty = true;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                String header = line.toString().trim();
+                line.setLength(0);
+                if (header.isEmpty()) {
+                    if (empty) {
+                        continue;
+                    }
+                    return in.readNBytes(contentLength);
+                }
+                empty = false;
+                if (header.toLowerCase().startsWith("content-length:")) {
+                    contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+                }
+            } else {
+                line.append((char) b);
+            }
+        }
+        return null;
+    }
+
+    private static void writeResponse(OutputStream out, byte[] packets, boolean close) throws IOException {
+        StringBuilder head = new StringBuilder();
+        byte[] body = new byte[0];
+        if (packets == null) {
+            head.append("HTTP/1.1 204 No Content\r\n");
+        } else {
+            body = (Base64.getUrlEncoder().withoutPadding().encodeToString(packets) + "\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            head.append("HTTP/1.1 200 OK\r\n").append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        if (close) {
+            head.append("Connection: close\r\n");
+        }
+        byte[] headBytes = head.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII);
+        byte[] response = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, response, 0, headBytes.length);
+        System.arraycopy(body, 0, response, headBytes.length, body.length);
+        out.write(response);        // Одной записью: иначе алгоритм Нейгла задерживает тело ответа
+        out.flush();
+    }
+
+    /** Закрытие с ожиданием: запросы, уже отправленные клиентом, дочитываются и отбрасываются. */
+    private static void drain(Socket socket, InputStream in) throws IOException {
+        socket.setSoTimeout(1000);
+        try {
+            while (in.read() != -1) {
+                // Необработанные запросы
+            }
+        } catch (SocketTimeoutException | SocketException ignored) {
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Тесты {@link StatusPoller}: адаптивный интервал опроса и ограничение частоты опросов.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class StatusPollerTest {
+
+    /** Число устройств, которые можно опросить в момент {@code tick} */
+    private static int drain(StatusPoller poller, long tick) {
+        int count = 0;
+        while (poller.nextDue(tick) >= 0) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    void intervalDoublesUntilStatusChanges() {
+        StatusPoller poller = new StatusPoller();
+        poller.register(7, 0);
+        assertEquals(-1, poller.nextDue(999));
+        assertEquals(7, poller.nextDue(1_000));
+
+        poller.onStatus(7, false, 1_000);
+        assertEquals(-1, poller.nextDue(2_999));
+        assertEquals(7, poller.nextDue(3_000));
+        poller.onStatus(7, false, 3_000);
+        assertEquals(-1, poller.nextDue(6_999));
+        assertEquals(7, poller.nextDue(7_000));
+
+        poller.onStatus(7, true, 7_000);
+        assertEquals(-1, poller.nextDue(7_999));
+        assertEquals(7, poller.nextDue(8_000));
+    }
+
+    @Test
+    void intervalIsCapped() {
+        StatusPoller poller = new StatusPoller();
+        poller.register(7, 0);
+        for (int i = 0; i < 10; i++) {
+            poller.onStatus(7, false, 0);
+        }
+        assertEquals(-1, poller.nextDue(StatusPoller.MAX_INTERVAL - 1));
+        assertEquals(7, poller.nextDue(StatusPoller.MAX_INTERVAL));
+
+        poller.register(7, StatusPoller.MAX_INTERVAL);      // Снова в сети: интервал минимальный
+        assertEquals(7, poller.nextDue(StatusPoller.MAX_INTERVAL + StatusPoller.MIN_INTERVAL));
+    }
+
+    @Test
+    void pollsAreLimitedByTokenBucket() {
+        StatusPoller poller = new StatusPoller();
+        for (long address = 1; address <= 40; address++) {
+            poller.register(address, 0);
+        }
+        assertEquals(StatusPoller.BURST, drain(poller, 1_000));
+        assertEquals(0, drain(poller, 1_000));
+        long ticksPerPoll = 1_000 / StatusPoller.POLLS_PER_KILOTICK;
+        assertEquals(1, drain(poller, 1_000 + ticksPerPoll));
+        assertEquals(StatusPoller.BURST, drain(poller, 100_000));       // Запас после простоя не больше BURST
+    }
+
+    @Test
+    void ignoresStatusOfUnknownDevice() {
+        StatusPoller poller = new StatusPoller();
+        poller.onStatus(7, true, 0);
+        assertEquals(-1, poller.nextDue(100_000));
+    }
+}
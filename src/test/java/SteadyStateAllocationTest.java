@@ -0,0 +1,44 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Бюджет выделения памяти циклом управления {@link SmartHub} в установившемся режиме: после выявления
+ * устройств и прогрева обработка пакетов {@link SimulatedHouse} через {@link LocalTransport} не должна создавать
+ * объектов. Память, выделенная потоком, измеряется {@link com.sun.management.ThreadMXBean#getCurrentThreadAllocatedBytes()}.
+ * @author Mikhail Semenov
+ * @version 1.0
+ */
+class SteadyStateAllocationTest {
+
+    /** Допустимое среднее выделение на обработанный пакет, байт: {@value}. Запас - на работу JIT-компилятора. */
+    private static final long BYTES_PER_PACKET_BUDGET = 1;
+
+    private static final int WARMUP_STEPS = 20_000;
+    private static final int MEASURED_STEPS = 50_000;
+
+    @Test
+    void steadyStateStaysWithinAllocationBudget() throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        SimulatedHouse house = new SimulatedHouse((WARMUP_STEPS + MEASURED_STEPS) * 10 * SimulatedHouse.TICKS_PER_REQUEST);
+        HubState state = new HubState(SimulatedHouse.HUB);
+        state.setSnapshotsEnabled(false);
+        state.setTransport(new LocalTransport(house));
+        SmartHub.start(null, state);
+        for (int i = 0; i < WARMUP_STEPS; i++) {
+            assertTrue(SmartHub.step(state) >= 0);
+        }
+        long packets = 0;
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_STEPS; i++) {
+            packets += SmartHub.step(state);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(packets >= MEASURED_STEPS, "packets: " + packets);
+        assertTrue(allocated <= packets * BYTES_PER_PACKET_BUDGET,
+                allocated + " bytes allocated for " + packets + " packets");
+    }
+}